@@ -0,0 +1,94 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the scalar and the Vector API {@link DistanceKernel} on a single row of a studio photo. The vector kernel
+ * needs JDK 17 and the {@code vector} profile:
+ * {@code mvn -Pvector,jmh test-compile exec:exec -Djmh.args=DistanceKernel}
+ *
+ * @author Maarten Blokker
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DistanceKernelBenchmark {
+
+    private static final int TOLERANCE = 300;
+
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    @Param({"6000"})
+    public int width;
+
+    private DistanceKernel distanceKernel;
+    private int[] rgb;
+    private int[] distances;
+    private int[] background;
+    private int[] content;
+
+    @Setup
+    public void setup() {
+        distanceKernel = "vector".equals(kernel)
+                ? DistanceKernel.vector().orElseThrow(() -> new IllegalStateException("Vector kernel is not available"))
+                : DistanceKernel.scalar();
+
+        // near white background with a product in the middle third of the row
+        Random random = new Random(42);
+        rgb = new int[width];
+        for (int x = 0; x < width; x++) {
+            if (x > width / 3 && x < width * 2 / 3) {
+                rgb[x] = random.nextInt(0x1000000);
+            } else {
+                int level = 250 + random.nextInt(6);
+                rgb[x] = level << 16 | level << 8 | level;
+            }
+        }
+
+        distances = new int[width];
+        background = new int[width];
+        content = new int[width];
+        DistanceKernel.scalar().distances(rgb, content, width);
+        for (int x = 0; x < width; x++) {
+            background[x] = content[x] > TOLERANCE ? 0 : content[x];
+        }
+    }
+
+    @Benchmark
+    public int[] distances() {
+        distanceKernel.distances(rgb, distances, width);
+        return distances;
+    }
+
+    @Benchmark
+    public int firstAboveBackground() {
+        return distanceKernel.firstAbove(background, width, TOLERANCE);
+    }
+
+    @Benchmark
+    public int rowExtent() {
+        return distanceKernel.firstAbove(content, width, TOLERANCE)
+                + distanceKernel.lastAbove(content, width, TOLERANCE);
+    }
+
+    @Benchmark
+    public boolean isCutWithinContent() {
+        return distanceKernel.isCut(content, content, content, content, 0, width, TOLERANCE);
+    }
+}
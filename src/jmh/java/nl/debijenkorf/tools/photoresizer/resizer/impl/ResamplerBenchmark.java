@@ -0,0 +1,97 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import com.google.common.io.ByteStreams;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import nl.debijenkorf.tools.photoresizer.Configuration;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
+import nl.debijenkorf.tools.photoresizer.resizer.Preset;
+import nl.debijenkorf.tools.photoresizer.resizer.ResamplingKernel;
+import nl.debijenkorf.tools.photoresizer.resizer.ScalingQuality;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link KernelResizer} against the area average of the {@link ImgScalrResizer}: rendering a decoded
+ * image, with the taps of the kernels cached after the first image, and the full process of a JPEG.
+ *
+ * @author Maarten Blokker
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ResamplerBenchmark {
+
+    private static final Preset PRESET = new Preset(10D, 80D, 9D);
+
+    @State(Scope.Benchmark)
+    public static class Source {
+
+        /**
+         * AREA for the {@link ImgScalrResizer}, or a {@link ResamplingKernel}.
+         */
+        @Param({"AREA", "LANCZOS3", "MITCHELL"})
+        public String resampler;
+
+        @Param({"3744x5616", "6000x8000"})
+        public String size;
+
+        ImgScalrResizer resizer;
+        Renderer renderer;
+        byte[] encoded;
+        BufferedImage image;
+        AlignmentPlan plan;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            SmartImageAligner aligner = new SmartImageAligner();
+            if (resampler.equals("AREA")) {
+                resizer = new ImgScalrResizer(aligner);
+                renderer = PlanRenderer::render;
+            } else {
+                ResamplingKernel kernel = ResamplingKernel.valueOf(resampler);
+                resizer = new KernelResizer(aligner, kernel);
+                renderer = new KernelRenderer(kernel);
+            }
+
+            int[] dimension = SyntheticImages.parseSize(size);
+            encoded = SyntheticImages.Format.JPEG_RGB.encode(dimension[0], dimension[1]);
+            image = ImageIO.read(new ByteArrayInputStream(encoded));
+            plan = AlignmentPlan.of(image).fit(Configuration.TARGET_WIDTH, Configuration.TARGET_HEIGHT);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            resizer.close();
+        }
+    }
+
+    @Benchmark
+    public BufferedImage render(Source source) {
+        return source.renderer.render(RowSource.of(source.image), source.plan, Color.WHITE, ScalingQuality.BEST,
+                false);
+    }
+
+    @Benchmark
+    public void process(Source source) throws IOException {
+        source.resizer.process(PRESET, Color.WHITE, true, new ByteArrayInputStream(source.encoded),
+                ByteStreams.nullOutputStream());
+    }
+}
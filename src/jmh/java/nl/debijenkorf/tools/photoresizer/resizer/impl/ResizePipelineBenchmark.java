@@ -0,0 +1,181 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import com.google.common.io.ByteStreams;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import nl.debijenkorf.tools.photoresizer.Configuration;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
+import nl.debijenkorf.tools.photoresizer.resizer.Preset;
+import nl.debijenkorf.tools.photoresizer.resizer.impl.SmartImageAligner.ImageEdges;
+import nl.debijenkorf.tools.photoresizer.resizer.impl.SmartImageAligner.Margin;
+import org.imgscalr.Scalr;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks every stage of the resize pipeline on its own, and the full {@link ImgScalrResizer#process}. The stages
+ * that work on a decoded image run on all {@link SyntheticImages.Format formats} and sizes, resizing with Scalr runs
+ * for every {@link Scalr.Method}. The {@code jmh} profile runs all benchmarks with the GC profiler, so allocation rates
+ * are reported next to the timings: {@code mvn -Pjmh test-compile exec:exec}, or to run a single stage on a single
+ * size: {@code mvn -Pjmh test-compile exec:exec -Djmh.args="ResizePipelineBenchmark.decode -p size=6000x8000 -prof gc"}
+ *
+ * @author Maarten Blokker
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ResizePipelineBenchmark {
+
+    private static final int TOLERANCE = 300;
+    private static final double ASPECT_RATIO = (double) Configuration.TARGET_WIDTH / Configuration.TARGET_HEIGHT;
+    private static final Preset PRESET = new Preset(10D, 80D, 9D);
+
+    @State(Scope.Benchmark)
+    public static class Source {
+
+        @Param({"JPEG_RGB", "TIFF_CMYK", "GIF_INDEXED", "PNG_ALPHA"})
+        public SyntheticImages.Format format;
+
+        @Param({"1200x1600", "3744x5616", "6000x8000"})
+        public String size;
+
+        final SmartImageAligner aligner = new SmartImageAligner();
+        final ImgScalrResizer resizer = new ImgScalrResizer(aligner);
+
+        byte[] encoded;
+        BufferedImage image;
+        ImageEdges edges;
+        Margin relativeMargin;
+        AlignmentPlan plan;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            int[] dimension = SyntheticImages.parseSize(size);
+            encoded = format.encode(dimension[0], dimension[1]);
+            image = ImageIO.read(new ByteArrayInputStream(encoded));
+            edges = aligner.findImageEdges(image, TOLERANCE);
+            relativeMargin = aligner.calculateRelativeMargin(edges, margin(aligner, edges),
+                    image.getWidth(), image.getHeight());
+            plan = aligner.plan(image, ASPECT_RATIO, bottomPercentage(), (int) PRESET.getTopLine(),
+                    (int) PRESET.getLeftRightMargin(), PRESET.getValign())
+                    .fit(Configuration.TARGET_WIDTH, Configuration.TARGET_HEIGHT);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            resizer.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Aligned {
+
+        @Param({"ULTRA_QUALITY", "QUALITY", "BALANCED", "SPEED"})
+        public Scalr.Method method;
+
+        @Param({"1200x1600", "3744x5616", "6000x8000"})
+        public String size;
+
+        BufferedImage image;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            int[] dimension = SyntheticImages.parseSize(size);
+            image = new SmartImageAligner().align(SyntheticImages.Format.JPEG_RGB.create(dimension[0], dimension[1]),
+                    ASPECT_RATIO, bottomPercentage(), (int) PRESET.getTopLine(), (int) PRESET.getLeftRightMargin(),
+                    Color.WHITE, PRESET.getValign());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Canvas {
+
+        final ImgScalrResizer resizer = new ImgScalrResizer(new SmartImageAligner());
+        BufferedImage image;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            image = SyntheticImages.productShot(Configuration.TARGET_WIDTH, Configuration.TARGET_HEIGHT, false);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            resizer.close();
+        }
+    }
+
+    @Benchmark
+    public BufferedImage decode(Source source) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(source.encoded));
+    }
+
+    @Benchmark
+    public Object findImageEdges(Source source) {
+        return source.aligner.findImageEdges(source.image, TOLERANCE);
+    }
+
+    @Benchmark
+    public Object calculateMargin(Source source) {
+        return margin(source.aligner, source.edges);
+    }
+
+    @Benchmark
+    public BufferedImage trimAndPad(Source source) {
+        return source.aligner.trimAndPad(source.image, source.relativeMargin, Color.WHITE);
+    }
+
+    @Benchmark
+    public BufferedImage renderPlan(Source source) {
+        return PlanRenderer.render(source.image, source.plan, Color.WHITE);
+    }
+
+    @Benchmark
+    public BufferedImage scalrResize(Aligned aligned) {
+        BufferedImage scaled = Scalr.resize(aligned.image, aligned.method,
+                Configuration.TARGET_WIDTH, Configuration.TARGET_HEIGHT);
+        if (scaled.getWidth() > Configuration.TARGET_WIDTH || scaled.getHeight() > Configuration.TARGET_HEIGHT) {
+            scaled = Scalr.crop(scaled, Configuration.TARGET_WIDTH, Configuration.TARGET_HEIGHT);
+        }
+        return scaled;
+    }
+
+    @Benchmark
+    public void encode(Canvas canvas) throws IOException {
+        canvas.resizer.write(canvas.image, ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    public void process(Source source) throws IOException {
+        source.resizer.process(PRESET, Color.WHITE, true, new ByteArrayInputStream(source.encoded),
+                ByteStreams.nullOutputStream());
+    }
+
+    private static Margin margin(SmartImageAligner aligner, ImageEdges edges) {
+        return aligner.calculateMargin(ASPECT_RATIO,
+                edges.getRightCoordinate() - edges.getLeftCoordinate(),
+                edges.getBottomCoordinate() - edges.getTopCoordinate(),
+                bottomPercentage(), (int) PRESET.getTopLine(), (int) PRESET.getLeftRightMargin(),
+                PRESET.getValign());
+    }
+
+    private static int bottomPercentage() {
+        return (int) (100 - PRESET.getBaseLine());
+    }
+}
@@ -0,0 +1,95 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import nl.debijenkorf.tools.photoresizer.Configuration;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
+import nl.debijenkorf.tools.photoresizer.resizer.ImageResizerService.ImageProfile;
+import nl.debijenkorf.tools.photoresizer.resizer.ScalingQuality;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks every {@link ScalingQuality} on a JPEG source, for a large and a small profile: rendering a decoded
+ * image, and decoding plus rendering, as the qualities below best are also decoded smaller.
+ * {@link ScalingQualityReport} reports the quality of the same tiers.
+ *
+ * @author Maarten Blokker
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ScalingQualityBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Source {
+
+        @Param({"DRAFT", "AUTO", "BEST"})
+        public ScalingQuality quality;
+
+        @Param({"web_detail_2x", "ish_lister"})
+        public ImageProfile profile;
+
+        @Param({"3744x5616", "6000x8000"})
+        public String size;
+
+        final CodecPool codecs = new CodecPool(1);
+        byte[] encoded;
+        BufferedImage image;
+        AlignmentPlan plan;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            int[] dimension = SyntheticImages.parseSize(size);
+            encoded = SyntheticImages.Format.JPEG_RGB.encode(dimension[0], dimension[1]);
+            image = decoder().decode(stream(), AlignmentPlan::of).getImage();
+            plan = AlignmentPlan.of(image).fit(profile.width, profile.height);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            codecs.close();
+        }
+
+        ImageDecoder decoder() {
+            int oversampling = quality == ScalingQuality.BEST ? Configuration.getDecodeOversampling() : 1;
+            return new ImageDecoder(codecs, profile.width, profile.height, oversampling, false);
+        }
+
+        ImageInputStream stream() throws IOException {
+            return ImageIO.createImageInputStream(new ByteArrayInputStream(encoded));
+        }
+    }
+
+    @Benchmark
+    public BufferedImage render(Source source) {
+        return PlanRenderer.render(source.image, source.plan, Color.WHITE, source.quality);
+    }
+
+    @Benchmark
+    public BufferedImage decodeAndRender(Source source) throws IOException {
+        try (ImageInputStream stream = source.stream()) {
+            BufferedImage image = source.decoder().decode(stream, AlignmentPlan::of).getImage();
+            AlignmentPlan plan = AlignmentPlan.of(image).fit(source.profile.width, source.profile.height);
+            return PlanRenderer.render(image, plan, Color.WHITE, source.quality);
+        }
+    }
+}
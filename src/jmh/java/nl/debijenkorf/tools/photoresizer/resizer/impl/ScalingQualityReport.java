@@ -0,0 +1,182 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import nl.debijenkorf.tools.photoresizer.Configuration;
+import nl.debijenkorf.tools.photoresizer.ResizerWorker;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
+import nl.debijenkorf.tools.photoresizer.resizer.ImageResizerService.ImageProfile;
+import nl.debijenkorf.tools.photoresizer.resizer.ScalingQuality;
+
+/**
+ * Reports the speed and the quality of every {@link ScalingQuality} on a corpus of images, for a large and a small
+ * profile. Every tier decodes and scales the whole image, without alignment, so only the scaling differs. The
+ * reference is an area average of the image decoded at full resolution. Quality is the PSNR of all color channels, and
+ * the mean SSIM of the luminance over 8x8 windows with a step of 4 pixels.
+ *
+ * Without a folder the synthetic product shots are used:
+ * {@code mvn -Pjmh test-compile exec:exec@quality-report [-Dreport.args=<folder with images>]}
+ *
+ * @author Maarten Blokker
+ */
+public final class ScalingQualityReport {
+
+    private static final ImageProfile[] PROFILES = {ImageProfile.web_detail_2x, ImageProfile.ish_lister};
+    private static final int RUNS = 3;
+
+    private ScalingQualityReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Source> sources = args.length > 0 ? corpus(Paths.get(args[0])) : synthetic();
+        System.out.printf("%-30s %-14s %-6s %10s %8s %8s%n", "source", "profile", "tier", "time (ms)", "PSNR", "SSIM");
+
+        try (CodecPool codecs = new CodecPool(1)) {
+            for (Source source : sources) {
+                for (ImageProfile profile : PROFILES) {
+                    BufferedImage reference = render(codecs, source, profile, ScalingQuality.BEST, 0);
+                    for (ScalingQuality quality : ScalingQuality.values()) {
+                        int oversampling = quality == ScalingQuality.BEST ? Configuration.getDecodeOversampling() : 1;
+                        BufferedImage image = null;
+                        long best = Long.MAX_VALUE;
+                        for (int run = 0; run < RUNS; run++) {
+                            long start = System.nanoTime();
+                            image = render(codecs, source, profile, quality, oversampling);
+                            best = Math.min(best, System.nanoTime() - start);
+                        }
+                        System.out.printf("%-30s %-14s %-6s %10.1f %8.2f %8.4f%n", source.name, profile, quality,
+                                best / 1e6, psnr(reference, image), ssim(reference, image));
+                    }
+                }
+            }
+        }
+    }
+
+    private static BufferedImage render(CodecPool codecs, Source source, ImageProfile profile,
+            ScalingQuality quality, int oversampling) throws IOException {
+        ImageDecoder decoder = new ImageDecoder(codecs, profile.width, profile.height, oversampling, false);
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(source.encoded))) {
+            BufferedImage image = decoder.decode(stream, AlignmentPlan::of).getImage();
+            AlignmentPlan plan = AlignmentPlan.of(image).fit(profile.width, profile.height);
+            return PlanRenderer.render(image, plan, Color.WHITE, quality);
+        }
+    }
+
+    static double psnr(BufferedImage reference, BufferedImage image) {
+        double sum = 0;
+        long count = 0;
+        for (int y = 0; y < reference.getHeight(); y++) {
+            for (int x = 0; x < reference.getWidth(); x++) {
+                int a = reference.getRGB(x, y);
+                int b = image.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int difference = ((a >> shift) & 0xFF) - ((b >> shift) & 0xFF);
+                    sum += difference * difference;
+                    count++;
+                }
+            }
+        }
+        return sum == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255D * 255 * count / sum);
+    }
+
+    static double ssim(BufferedImage reference, BufferedImage image) {
+        double[][] a = luminance(reference);
+        double[][] b = luminance(image);
+        double c1 = Math.pow(0.01 * 255, 2);
+        double c2 = Math.pow(0.03 * 255, 2);
+
+        double total = 0;
+        int windows = 0;
+        for (int y = 0; y + 8 <= a.length; y += 4) {
+            for (int x = 0; x + 8 <= a[0].length; x += 4) {
+                double meanA = 0;
+                double meanB = 0;
+                for (int j = y; j < y + 8; j++) {
+                    for (int i = x; i < x + 8; i++) {
+                        meanA += a[j][i];
+                        meanB += b[j][i];
+                    }
+                }
+                meanA /= 64;
+                meanB /= 64;
+
+                double varianceA = 0;
+                double varianceB = 0;
+                double covariance = 0;
+                for (int j = y; j < y + 8; j++) {
+                    for (int i = x; i < x + 8; i++) {
+                        varianceA += (a[j][i] - meanA) * (a[j][i] - meanA);
+                        varianceB += (b[j][i] - meanB) * (b[j][i] - meanB);
+                        covariance += (a[j][i] - meanA) * (b[j][i] - meanB);
+                    }
+                }
+                varianceA /= 63;
+                varianceB /= 63;
+                covariance /= 63;
+
+                total += (2 * meanA * meanB + c1) * (2 * covariance + c2)
+                        / ((meanA * meanA + meanB * meanB + c1) * (varianceA + varianceB + c2));
+                windows++;
+            }
+        }
+        return total / windows;
+    }
+
+    private static double[][] luminance(BufferedImage image) {
+        double[][] luminance = new double[image.getHeight()][image.getWidth()];
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = image.getRGB(x, y);
+                luminance[y][x] = 0.299 * ((rgb >> 16) & 0xFF) + 0.587 * ((rgb >> 8) & 0xFF) + 0.114 * (rgb & 0xFF);
+            }
+        }
+        return luminance;
+    }
+
+    private static List<Source> synthetic() {
+        List<Source> sources = new ArrayList<>();
+        for (String size : new String[]{"3744x5616", "6000x8000"}) {
+            int[] dimension = SyntheticImages.parseSize(size);
+            for (SyntheticImages.Format format : SyntheticImages.Format.values()) {
+                sources.add(new Source(format + " " + size, format.encode(dimension[0], dimension[1])));
+            }
+        }
+        return sources;
+    }
+
+    private static List<Source> corpus(Path folder) throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(ResizerWorker.IMAGE_FILE_PATTERN);
+        try (Stream<Path> files = Files.list(folder)) {
+            List<Path> images = files.filter(matcher::matches).sorted().collect(Collectors.toList());
+            List<Source> sources = new ArrayList<>();
+            for (Path image : images) {
+                sources.add(new Source(image.getFileName().toString(), Files.readAllBytes(image)));
+            }
+            return sources;
+        }
+    }
+
+    private static final class Source {
+
+        final String name;
+        final byte[] encoded;
+
+        Source(String name, byte[] encoded) {
+            this.name = name;
+            this.encoded = encoded;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Deterministic product shots for the benchmarks: a product on a white background with its reflection on the floor,
+ * in the formats and color models the studio delivers.
+ *
+ * @author Maarten Blokker
+ */
+public final class SyntheticImages {
+
+    public enum Format {
+        JPEG_RGB("jpeg"),
+        TIFF_CMYK("tiff"),
+        GIF_INDEXED("gif"),
+        PNG_ALPHA("png");
+
+        private final String formatName;
+
+        Format(String formatName) {
+            this.formatName = formatName;
+        }
+
+        /**
+         * @return the product shot in the color model of this format
+         */
+        public BufferedImage create(int width, int height) {
+            BufferedImage image = productShot(width, height, this == PNG_ALPHA);
+            switch (this) {
+                case JPEG_RGB:
+                    return convert(image, BufferedImage.TYPE_3BYTE_BGR);
+                case TIFF_CMYK:
+                    return toCmyk(image);
+                case GIF_INDEXED:
+                    return convert(image, BufferedImage.TYPE_BYTE_INDEXED);
+                default:
+                    return image;
+            }
+        }
+
+        /**
+         * @return the product shot encoded in this format
+         */
+        public byte[] encode(int width, int height) {
+            try {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                if (!ImageIO.write(create(width, height), formatName, output)) {
+                    throw new IllegalStateException("No writer for " + formatName);
+                }
+                return output.toByteArray();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    private static final long SEED = 42;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * @param size size formatted as {@code <width>x<height>}
+     * @return width and height
+     */
+    public static int[] parseSize(String size) {
+        String[] parts = size.split("x");
+        return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    /**
+     * A product with a gradient and some texture in the middle of the image, standing on the floor at three quarters of
+     * the height with a faded reflection below it.
+     *
+     * @param alpha when true the image has an alpha channel and the reflection is translucent
+     */
+    static BufferedImage productShot(int width, int height, boolean alpha) {
+        Random random = new Random(SEED);
+        BufferedImage image = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+
+        int floor = height * 3 / 4;
+        int productWidth = width / 2;
+        int productHeight = height / 2;
+        int x = (width - productWidth) / 2;
+        int y = floor - productHeight;
+
+        g.setPaint(new GradientPaint(x, y, new Color(120, 40, 30), x + productWidth, floor, new Color(220, 170, 90)));
+        g.fillRoundRect(x, y, productWidth, productHeight, productWidth / 5, productWidth / 5);
+        for (int i = 0; i < 200; i++) {
+            g.setColor(new Color(random.nextInt(0x1000000)));
+            int size = 1 + random.nextInt(Math.max(1, productWidth / 20));
+            g.fillOval(x + random.nextInt(productWidth - size), y + random.nextInt(productHeight - size), size, size);
+        }
+
+        // reflection: faded rows below the product
+        int reflection = Math.min(height - floor - 1, productHeight / 4);
+        if (alpha) {
+            g.setComposite(AlphaComposite.Src);
+        }
+        for (int i = 0; i < reflection; i++) {
+            int opacity = 96 - 96 * i / Math.max(1, reflection);
+            g.setColor(new Color(200, 160, 140, opacity));
+            g.fillRect(x + productWidth / 40, floor + i, productWidth - productWidth / 20, 1);
+        }
+        g.dispose();
+        return image;
+    }
+
+    private static BufferedImage convert(BufferedImage image, int type) {
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g = converted.createGraphics();
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return converted;
+    }
+
+    private static BufferedImage toCmyk(BufferedImage image) {
+        ColorSpace cmyk = new NaiveCmykColorSpace();
+        ComponentColorModel colorModel = new ComponentColorModel(cmyk, false, false, ColorModel.OPAQUE,
+                DataBuffer.TYPE_BYTE);
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(image.getWidth(), image.getHeight());
+
+        int[] rgb = new int[image.getWidth()];
+        byte[] pixels = new byte[image.getWidth() * 4];
+        for (int y = 0; y < image.getHeight(); y++) {
+            image.getRGB(0, y, rgb.length, 1, rgb, 0, rgb.length);
+            for (int x = 0; x < rgb.length; x++) {
+                int red = (rgb[x] >> 16) & 0xFF;
+                int green = (rgb[x] >> 8) & 0xFF;
+                int blue = rgb[x] & 0xFF;
+                int max = Math.max(1, Math.max(red, Math.max(green, blue)));
+                pixels[x * 4] = (byte) ((max - red) * 255 / max);
+                pixels[x * 4 + 1] = (byte) ((max - green) * 255 / max);
+                pixels[x * 4 + 2] = (byte) ((max - blue) * 255 / max);
+                pixels[x * 4 + 3] = (byte) (255 - max);
+            }
+            raster.setDataElements(0, y, rgb.length, 1, pixels);
+        }
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * CMYK without a color profile, which is what the TIFF writer needs to write CMYK photometrics.
+     */
+    private static final class NaiveCmykColorSpace extends ColorSpace {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final ColorSpace SRGB = ColorSpace.getInstance(ColorSpace.CS_sRGB);
+
+        NaiveCmykColorSpace() {
+            super(TYPE_CMYK, 4);
+        }
+
+        @Override
+        public float[] toRGB(float[] value) {
+            float black = 1 - value[3];
+            return new float[]{(1 - value[0]) * black, (1 - value[1]) * black, (1 - value[2]) * black};
+        }
+
+        @Override
+        public float[] fromRGB(float[] rgb) {
+            float max = Math.max(rgb[0], Math.max(rgb[1], rgb[2]));
+            if (max == 0) {
+                return new float[]{0, 0, 0, 1};
+            }
+            return new float[]{(max - rgb[0]) / max, (max - rgb[1]) / max, (max - rgb[2]) / max, 1 - max};
+        }
+
+        @Override
+        public float[] toCIEXYZ(float[] value) {
+            return SRGB.toCIEXYZ(toRGB(value));
+        }
+
+        @Override
+        public float[] fromCIEXYZ(float[] xyz) {
+            return fromRGB(SRGB.fromCIEXYZ(xyz));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package nl.debijenkorf.tools.photoresizer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes files so that other processes never see them half written. The content, which is already encoded in memory,
+ * is written to a hidden temporary file next to the target in a single write and forced to disk, which is then moved
+ * over the target atomically. When writing fails the target is left untouched.
+ *
+ * The temporary file is created like any other new file, so the target gets the default permissions of the process
+ * and can be read by other users, as the files written by the previous version could.
+ *
+ * @author Maarten Blokker
+ */
+final class AtomicFileWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AtomicFileWriter.class);
+
+    private AtomicFileWriter() {
+    }
+
+    /**
+     * @param target the file to write, replaced when it exists
+     * @param content the content of the file
+     * @throws IOException when the file could not be written
+     */
+    static void write(Path target, byte[] content) throws IOException {
+        Path temp = null;
+        try {
+            FileChannel channel;
+            while (true) {
+                // Files.createTempFile would create the file readable by its owner only
+                temp = target.resolveSibling("." + target.getFileName() + "."
+                        + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+                try {
+                    channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+                    break;
+                } catch (FileAlreadyExistsException ex) {
+                    LOG.debug("Temporary file {} already exists, trying another name", temp);
+                }
+            }
+            try {
+                ByteBuffer bytes = ByteBuffer.wrap(content);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                // a crash right after the move must not leave an empty or torn target behind
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            move(temp, target);
+        } catch (IOException | RuntimeException ex) {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+            throw ex;
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            LOG.warn("Atomic move is not supported, replacing {} non atomically", target);
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -3,10 +3,15 @@ package nl.debijenkorf.tools.photoresizer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
+import java.util.stream.Collectors;
+import nl.debijenkorf.tools.photoresizer.resizer.ImageResizerService.ImageProfile;
 import nl.debijenkorf.tools.photoresizer.resizer.Preset;
+import nl.debijenkorf.tools.photoresizer.resizer.ResamplingKernel;
+import nl.debijenkorf.tools.photoresizer.resizer.ScalingQuality;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +41,329 @@ public class Configuration {
         return Boolean.getBoolean("debug");
     }
 
+    /**
+     * The accuracy of the image edge detection in pixels. With 0 (the default) the full image is scanned, a positive
+     * value enables the coarse to fine edge detection. That finds the same edges as the full scan, the value is the
+     * size of the blocks it first looks at, and larger blocks usually make it faster on images with wide margins.
+     *
+     * @return max error of the edge detection
+     */
+    public static int getEdgeMaxError() {
+        return Integer.getInteger("edges.maxError", 0);
+    }
+
+    /**
+     * When enabled, the coarse to fine edge detection is compared against a full scan of every image.
+     *
+     * @return true if edge detection results should be validated
+     */
+    public static boolean isEdgeValidation() {
+        return Boolean.getBoolean("edges.validate");
+    }
+
+    /**
+     * Images with at least this amount of pixels are scanned for their edges by multiple threads. The default is
+     * above the size of the studio photos, so a normal batch keeps processing one image per thread.
+     *
+     * @return pixel count from which edge detection runs in parallel
+     */
+    public static long getParallelEdgeThreshold() {
+        return Long.getLong("edges.parallelThreshold", 50_000_000L);
+    }
+
+    /**
+     * When enabled, the edge detection looks for the reflection of the product on the floor, and places the bottom
+     * edge right above it.
+     *
+     * @return true if reflections should be detected
+     */
+    public static boolean isReflectionDetection() {
+        return Boolean.getBoolean("reflection.detect");
+    }
+
+    /**
+     * The score a fold in the bottom half of the image needs to exceed to be taken as the start of a reflection.
+     *
+     * @return minimum reflection score
+     */
+    public static int getReflectionMinScore() {
+        return Integer.getInteger("reflection.minScore", 300);
+    }
+
+    /**
+     * Sources that are more than this many times larger than the target in both dimensions are decoded with
+     * subsampling, skipping rows and columns while staying at least this many times larger. Cropping the margins
+     * during alignment enlarges the product, so the default of 2 leaves room for it. With 0 images are always decoded
+     * at full resolution. Only applies to the {@code best} {@link #getScalingQuality() scaling quality}, the others
+     * decode as close to the target size as possible.
+     *
+     * @return minimum ratio between the decoded and the target size
+     */
+    public static int getDecodeOversampling() {
+        return Integer.getInteger("decode.oversampling", 2);
+    }
+
+    /**
+     * When enabled, the alignment is planned on a small preview of the source, after which only the part of the source
+     * that ends up in the output is decoded. Images that are not aligned are decoded in a single phase.
+     *
+     * @return true if sources should be decoded in two phases
+     */
+    public static boolean isTwoPhaseDecode() {
+        return Boolean.getBoolean("decode.twoPhase");
+    }
+
+    /**
+     * When enabled (the default), images are rendered in parallel bands while fewer files are being processed than
+     * there are cores.
+     *
+     * @return true if rendering may run in parallel
+     */
+    public static boolean isParallelRendering() {
+        return Boolean.parseBoolean(System.getProperty("render.parallel", "true"));
+    }
+
+    /**
+     * TIFF sources with at least this amount of pixels, that are stored in tiles or strips, are read strip by strip
+     * while they are scaled, instead of being decoded as a whole. The alignment is then planned on a preview of about
+     * the target size. The default is far above the size of the studio photos, it is meant for scans and stitched
+     * composites.
+     *
+     * @return pixel count from which sources are streamed
+     */
+    public static long getStreamingThreshold() {
+        return Long.getLong("decode.streamingThreshold", 100_000_000L);
+    }
+
+    /**
+     * The scaling quality, one of {@link ScalingQuality}: {@code draft} for fast proofs, {@code auto} to choose the
+     * filter from the scale factor, or {@code best} (the default) to always average. Profiles can override it, see
+     * {@link #getScalingQuality(ImageProfile)}.
+     *
+     * @return the scaling quality
+     */
+    public static ScalingQuality getScalingQuality() {
+        return parse("scaling.quality", System.getProperty("scaling.quality", "best"), ScalingQuality.class);
+    }
+
+    /**
+     * The scaling quality of the images of a profile, set with {@code scaling.quality.<profile name>}. By default the
+     * {@link #getScalingQuality() scaling quality} of the run is used.
+     *
+     * @param profile the image profile
+     * @return the scaling quality of the profile
+     */
+    public static ScalingQuality getScalingQuality(ImageProfile profile) {
+        String property = "scaling.quality." + profile.name();
+        String quality = System.getProperty(property, "").trim();
+        if (quality.isEmpty()) {
+            return getScalingQuality();
+        }
+        return parse(property, quality, ScalingQuality.class);
+    }
+
+    /**
+     * The JPEG quality of the image at the target size, in percent. Images of the {@link #getProfiles() profiles} use
+     * the quality of their profile.
+     *
+     * @return the encode quality between 1 and 100
+     */
+    public static int getEncodeQuality() {
+        return Math.max(1, Math.min(100, Integer.getInteger("encode.quality", 100)));
+    }
+
+    /**
+     * When enabled (the default), the color of the image at the target size is stored at half the resolution of the
+     * luminance. Images of the {@link #getProfiles() profiles} use the subsampling of their profile.
+     *
+     * @return true if the chroma should be subsampled
+     */
+    public static boolean isChromaSubsampling() {
+        return Boolean.parseBoolean(System.getProperty("encode.chromaSubsampling", "true"));
+    }
+
+    /**
+     * The maximum size of every written image in bytes. Images that are larger at their quality are written with the
+     * highest lower quality that fits. With 0 (the default) the size is not limited.
+     *
+     * @return the maximum size of an image in bytes
+     */
+    public static long getEncodeMaxBytes() {
+        return Long.getLong("encode.maxBytes", 0L);
+    }
+
+    /**
+     * The kernel to resample with, one of {@link ResamplingKernel}: {@code lanczos3} or {@code mitchell}. By default
+     * the filter of the {@link #getScalingQuality() scaling quality} is used.
+     *
+     * @return the resampling kernel, empty for the filter of the scaling quality
+     */
+    public static Optional<ResamplingKernel> getResamplingKernel() {
+        String kernel = System.getProperty("resampling.kernel", "").trim();
+        if (kernel.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(parse("resampling.kernel", kernel, ResamplingKernel.class));
+    }
+
+    /**
+     * The image profiles to render every source for, as a comma separated list of profile names. When set, every source
+     * is decoded once and written to a folder per profile in the target folder, instead of once at the target size
+     * with the margins of the preset.
+     *
+     * @return the profiles to render, empty to render the target size only
+     */
+    public static List<ImageProfile> getProfiles() {
+        String profiles = System.getProperty("profiles", "").trim();
+        if (profiles.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.stream(profiles.split(","))
+                .map((profile) -> parse("profiles", profile, ImageProfile.class))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * The amount of threads that read source files ahead of the resize threads, so the files are in the page cache of
+     * the operating system when they are decoded. Defaults to 2.
+     *
+     * @return the amount of read threads
+     */
+    public static int getReadThreads() {
+        return Math.max(1, Integer.getInteger("pipeline.readThreads", 2));
+    }
+
+    /**
+     * The amount of threads that decode, align, scale and encode images. Defaults to the amount of cores, the work is
+     * bound by the CPU.
+     *
+     * @return the amount of resize threads
+     */
+    public static int getResizeThreads() {
+        return Math.max(1, Integer.getInteger("pipeline.resizeThreads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * The amount of threads that write encoded images. Defaults to 2.
+     *
+     * @return the amount of write threads
+     */
+    public static int getWriteThreads() {
+        return Math.max(1, Integer.getInteger("pipeline.writeThreads", 2));
+    }
+
+    /**
+     * The amount of files that may wait for every stage of the pipeline, on top of the files the threads of the stage
+     * are busy with. A stage that has this many files waiting holds back the stage before it. Defaults to 2.
+     *
+     * @return the amount of files waiting per stage
+     */
+    public static int getPipelineQueueSize() {
+        return Math.max(0, Integer.getInteger("pipeline.queueSize", 2));
+    }
+
+    /**
+     * The heap that the files being resized may take together, in megabytes, as estimated from their headers. A file is
+     * only resized when its estimate fits next to the files that are already being resized, a file that needs more
+     * than the whole budget is resized on its own. Defaults to half of the maximum heap, large rasters need contiguous
+     * free heap and the rest of the work is not estimated.
+     *
+     * @return the memory budget in megabytes
+     */
+    public static int getMemoryBudget() {
+        int heap = (int) (Runtime.getRuntime().maxMemory() / 2 >> 20);
+        return Math.max(1, Integer.getInteger("pipeline.memoryBudget", heap));
+    }
+
+    /**
+     * The amount of threads that list the source folder and its subfolders. With more than 1, subfolders are listed in
+     * parallel, which mainly pays off on network shares where listing a folder waits on the server. Defaults to 1.
+     *
+     * @return the amount of discovery threads
+     */
+    public static int getDiscoveryThreads() {
+        return Math.max(1, Integer.getInteger("discovery.threads", 1));
+    }
+
+    /**
+     * While the source folder is watched, a new or changed file is only processed once its size and modification time
+     * did not change for this long, so files that are still being copied are not read half written. Defaults to 2000.
+     *
+     * @return the settle time in milliseconds
+     */
+    public static long getWatchSettleTime() {
+        return Math.max(0L, Long.getLong("watch.settleTime", 2000L));
+    }
+
+    /**
+     * When enabled (the default), files that did not change since they were last processed into the target folder
+     * with the same settings are skipped, see {@link ProcessingManifest}. When disabled every file is processed again.
+     *
+     * @return true to skip unchanged files
+     */
+    public static boolean isIncremental() {
+        return Boolean.parseBoolean(System.getProperty("incremental", "true"));
+    }
+
+    /**
+     * The settings that change the images that are written, with their defaults filled in, including the debug mode
+     * that draws the edges. Settings that only change how fast the images are written, like the amount of threads,
+     * are left out.
+     *
+     * @return the settings as a single line of text
+     */
+    public static String getOutputSettings() {
+        return "debug=" + isDebug()
+                + ",edges.maxError=" + getEdgeMaxError()
+                + ",reflection.detect=" + isReflectionDetection()
+                + ",reflection.minScore=" + getReflectionMinScore()
+                + ",decode.oversampling=" + getDecodeOversampling()
+                + ",decode.twoPhase=" + isTwoPhaseDecode()
+                + ",decode.streamingThreshold=" + getStreamingThreshold()
+                + ",scaling.quality=" + getScalingQuality()
+                + ",resampling.kernel=" + getResamplingKernel().map(ResamplingKernel::name).orElse("")
+                + ",encode.quality=" + getEncodeQuality()
+                + ",encode.chromaSubsampling=" + isChromaSubsampling()
+                + ",encode.maxBytes=" + getEncodeMaxBytes()
+                + ",profiles=" + getProfiles()
+                + getProfiles().stream()
+                        .map((profile) -> ",scaling.quality." + profile.name() + "=" + getScalingQuality(profile))
+                        .collect(Collectors.joining())
+                + ",target=" + TARGET_WIDTH + "x" + TARGET_HEIGHT;
+    }
+
+    /**
+     * Checks the settings that name constants, the scaling qualities, the resampling kernel and the profiles, so a
+     * misspelled value stops a run before any file is processed.
+     *
+     * @throws IllegalArgumentException naming the property and its allowed values, when a setting is invalid
+     */
+    public static void validate() {
+        getScalingQuality();
+        for (ImageProfile profile : ImageProfile.values()) {
+            getScalingQuality(profile);
+        }
+        getResamplingKernel();
+        getProfiles();
+    }
+
+    /**
+     * Parses a setting into one of the constants of an enum, ignoring case.
+     *
+     * @throws IllegalArgumentException naming the property and its allowed values, when the value is no constant
+     */
+    private static <E extends Enum<E>> E parse(String property, String value, Class<E> type) {
+        for (E constant : type.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value.trim())) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("Invalid value for " + property + ": '" + value.trim() + "', allowed are "
+                + Arrays.stream(type.getEnumConstants())
+                        .map((constant) -> constant.name().toLowerCase(Locale.ROOT))
+                        .collect(Collectors.joining(", ")));
+    }
+
     public static List<Preset> getPresets() {
         return Collections.unmodifiableList(PRESETS);
     }
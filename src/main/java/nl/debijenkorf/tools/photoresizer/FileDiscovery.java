@@ -0,0 +1,233 @@
+package nl.debijenkorf.tools.photoresizer;
+
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds the files of a folder and all of its subfolders, handing every matching file over as soon as it is listed
+ * instead of collecting the whole tree first. Folders are listed one at a time, or in parallel with more than one
+ * thread. Symbolic links to files are followed, links to folders are not, so a link can not lead the walk in a circle.
+ * One folder can be excluded, like a destination folder inside the source folder.
+ *
+ * While the walk runs the total amount of files is estimated from the files found so far, extrapolated over the
+ * folders that are found but not listed yet.
+ *
+ * @author Maarten Blokker
+ */
+final class FileDiscovery {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileDiscovery.class);
+
+    private final Path root;
+    private final PathMatcher matcher;
+    private final Path excluded;
+    private final int threads;
+
+    private final AtomicLong found = new AtomicLong();
+    private final AtomicInteger listed = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile boolean done;
+    private volatile boolean cancelled;
+    private volatile Consumer<Path> folderListener = (folder) -> {
+    };
+
+    /**
+     * @param root the folder to walk
+     * @param matcher matches the files to hand over
+     * @param excluded a folder that is skipped, or null
+     * @param threads amount of threads that list folders
+     */
+    FileDiscovery(Path root, PathMatcher matcher, Path excluded, int threads) {
+        this.root = root;
+        this.matcher = matcher;
+        this.excluded = excluded == null ? null : excluded.toAbsolutePath().normalize();
+        this.threads = threads;
+    }
+
+    /**
+     * Walks the folder, blocking until every folder is listed or the walk is cancelled. The consumer is called from the
+     * listing threads, a consumer that blocks holds back the walk.
+     *
+     * @param consumer receives every matching file, with the attributes it was listed with
+     * @throws IOException when the root folder can not be listed, subfolders that can not be listed are skipped
+     */
+    void walk(BiConsumer<Path, BasicFileAttributes> consumer) throws IOException {
+        pending.incrementAndGet();
+        List<Path> folders = list(root, consumer);
+        if (threads > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(new ListTask(folders, consumer));
+            } finally {
+                pool.shutdown();
+            }
+        } else {
+            Deque<Path> queue = new ArrayDeque<>(folders);
+            while (!queue.isEmpty() && !cancelled) {
+                List<Path> subfolders = listQuietly(queue.pollFirst(), consumer);
+                // depth first, so the files of a shoot are handed over together
+                for (int i = subfolders.size() - 1; i >= 0; i--) {
+                    queue.addFirst(subfolders.get(i));
+                }
+            }
+        }
+        done = true;
+    }
+
+    /**
+     * @param folderListener called with every folder right before it is listed
+     */
+    void setFolderListener(Consumer<Path> folderListener) {
+        this.folderListener = folderListener;
+    }
+
+    /**
+     * Stops the walk after the folders that are being listed.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return the amount of matching files found so far
+     */
+    long getFound() {
+        return found.get();
+    }
+
+    /**
+     * @return the estimated total amount of matching files, the exact amount once the walk is done
+     */
+    double getEstimatedTotal() {
+        long files = found.get();
+        int folders = listed.get();
+        if (done || folders == 0) {
+            return files;
+        }
+        return files + pending.get() * (double) files / folders;
+    }
+
+    /**
+     * Lists a single folder, handing over its files.
+     *
+     * @return the subfolders, already counted as pending
+     */
+    private List<Path> list(Path folder, BiConsumer<Path, BasicFileAttributes> consumer) throws IOException {
+        List<Path> subfolders = new ArrayList<>();
+        try {
+            folderListener.accept(folder);
+            // a walk of depth 1 visits the subfolders as entries, with the attributes that came with the listing
+            Files.walkFileTree(folder, Collections.<FileVisitOption>emptySet(), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (cancelled) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (attrs.isDirectory()) {
+                        if (!file.toAbsolutePath().normalize().equals(excluded)) {
+                            subfolders.add(file);
+                        }
+                    } else if (attrs.isRegularFile() && matcher.matches(file)) {
+                        found.incrementAndGet();
+                        consumer.accept(file, attrs);
+                    } else if (attrs.isSymbolicLink() && matcher.matches(file)) {
+                        visitLink(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                private void visitLink(Path file) {
+                    BasicFileAttributes target;
+                    try {
+                        target = Files.readAttributes(file, BasicFileAttributes.class);
+                    } catch (IOException ex) {
+                        LOG.warn("Skipping {}, the file it links to can not be read: {}", file, ex.toString());
+                        return;
+                    }
+                    if (target.isRegularFile()) {
+                        found.incrementAndGet();
+                        // the size and modification time of the image, not of the link
+                        consumer.accept(file, target);
+                    }
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    if (file.equals(folder)) {
+                        throw exc;
+                    }
+                    LOG.warn("Skipping {}, it can not be read: {}", file, exc.toString());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            pending.decrementAndGet();
+            listed.incrementAndGet();
+        }
+        pending.addAndGet(subfolders.size());
+        return subfolders;
+    }
+
+    private List<Path> listQuietly(Path folder, BiConsumer<Path, BasicFileAttributes> consumer) {
+        try {
+            return list(folder, consumer);
+        } catch (IOException ex) {
+            LOG.warn("Skipping folder {}, it can not be listed: {}", folder, ex.toString());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Lists folders in parallel, a task per folder that forks the tasks of its subfolders.
+     */
+    private final class ListTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> folders;
+        private final BiConsumer<Path, BasicFileAttributes> consumer;
+
+        ListTask(List<Path> folders, BiConsumer<Path, BasicFileAttributes> consumer) {
+            this.folders = folders;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+            if (folders.size() == 1) {
+                List<Path> subfolders = listQuietly(folders.get(0), consumer);
+                if (!subfolders.isEmpty()) {
+                    new ListTask(subfolders, consumer).compute();
+                }
+            } else {
+                List<ListTask> tasks = new ArrayList<>();
+                for (Path folder : folders) {
+                    tasks.add(new ListTask(Collections.singletonList(folder), consumer));
+                }
+                invokeAll(tasks);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package nl.debijenkorf.tools.photoresizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a folder and its subfolders for image files that are created or changed, and hands them over once they are
+ * completely written. The file system only tells that a file changed, not that the writer is done with it, so a file
+ * is handed over once its size and modification time stayed the same for the
+ * {@link Configuration#getWatchSettleTime() settle time}. Files that are waiting to settle are checked a few times per
+ * settle time, also when no events arrive, which some network shares only send when a file is created.
+ *
+ * Subfolders that are created while watching are watched and scanned for the files that were written before they
+ * were watched. When events were lost the whole folder is scanned again.
+ *
+ * @author Maarten Blokker
+ */
+final class FolderWatcher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FolderWatcher.class);
+
+    private final WatchService service;
+    private final Path root;
+    private final PathMatcher matcher;
+    private final Path excluded;
+    private final long settleTime;
+
+    private final Map<WatchKey, Path> folders = new ConcurrentHashMap<>();
+    // only used by the watching thread
+    private final Map<Path, Observation> pending = new HashMap<>();
+
+    /**
+     * @param root the folder to watch
+     * @param matcher matches the files to hand over
+     * @param excluded a folder that is not watched, or null
+     * @param settleTime time in milliseconds a file has to stay the same before it is handed over
+     * @throws IOException when the file system can not be watched
+     */
+    FolderWatcher(Path root, PathMatcher matcher, Path excluded, long settleTime) throws IOException {
+        this.service = root.getFileSystem().newWatchService();
+        this.root = root;
+        this.matcher = matcher;
+        this.excluded = excluded == null ? null : excluded.toAbsolutePath().normalize();
+        this.settleTime = TimeUnit.MILLISECONDS.toNanos(settleTime);
+    }
+
+    /**
+     * Watches a single folder, call it before the folder is listed so files that are created after the listing are
+     * noticed. A folder that can not be watched is logged.
+     *
+     * @param folder the folder to watch
+     */
+    void register(Path folder) {
+        try {
+            WatchKey key = folder.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            folders.put(key, folder);
+        } catch (ClosedWatchServiceException ex) {
+            LOG.debug("Not watching {}, the watcher is closed", folder);
+        } catch (IOException ex) {
+            LOG.warn("Failed to watch {}, new files in it are not noticed: {}", folder, ex.toString());
+        }
+    }
+
+    /**
+     * Hands over settled files until the watcher is closed or the thread is interrupted.
+     *
+     * @param consumer receives every settled file with its attributes, and returns false when it can not take the file
+     * yet, it is then handed over again later
+     */
+    void watch(BiPredicate<Path, BasicFileAttributes> consumer) {
+        long interval = Math.max(100L, TimeUnit.NANOSECONDS.toMillis(settleTime) / 4);
+        try {
+            while (true) {
+                WatchKey key = pending.isEmpty() ? service.take() : service.poll(interval, TimeUnit.MILLISECONDS);
+                while (key != null) {
+                    handle(key);
+                    key = service.poll();
+                }
+                settle(consumer);
+            }
+        } catch (ClosedWatchServiceException ex) {
+            LOG.debug("Stopped watching {}", root);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    private void handle(WatchKey key) {
+        Path folder = folders.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOG.warn("Missed changes in {}, scanning it again", root);
+                scan(root);
+            } else if (folder != null) {
+                Path path = folder.resolve((Path) event.context());
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        scan(path);
+                    }
+                } else if (matcher.matches(path)) {
+                    observe(path);
+                }
+            }
+        }
+        if (!key.reset()) {
+            // the folder was deleted or can no longer be watched
+            folders.remove(key);
+        }
+    }
+
+    /**
+     * Watches a folder and its subfolders, and observes the files that are already in it.
+     */
+    private void scan(Path folder) {
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (dir.toAbsolutePath().normalize().equals(excluded)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    register(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && matcher.matches(file)) {
+                        observe(file, attrs);
+                    } else if (attrs.isSymbolicLink() && matcher.matches(file)) {
+                        // with the attributes of the image it links to
+                        observe(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    LOG.warn("Skipping {}, it can not be read: {}", file, exc.toString());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            LOG.warn("Failed to scan {}: {}", folder, ex.toString());
+        }
+    }
+
+    private void observe(Path file) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            if (attrs.isRegularFile()) {
+                observe(file, attrs);
+            }
+        } catch (IOException ex) {
+            // deleted or renamed again before it could be observed
+            LOG.debug("Failed to observe {}: {}", file, ex.toString());
+        }
+    }
+
+    private void observe(Path file, BasicFileAttributes attrs) {
+        Observation previous = pending.get(file);
+        if (previous == null || !previous.isSame(attrs)) {
+            pending.put(file, new Observation(attrs, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Hands over the pending files that stayed the same for the settle time.
+     */
+    private void settle(BiPredicate<Path, BasicFileAttributes> consumer) {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, Observation>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Observation> entry = it.next();
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(entry.getKey(), BasicFileAttributes.class);
+            } catch (NoSuchFileException ex) {
+                it.remove();
+                continue;
+            } catch (IOException ex) {
+                LOG.debug("Failed to observe {}: {}", entry.getKey(), ex.toString());
+                continue;
+            }
+
+            if (!entry.getValue().isSame(attrs)) {
+                entry.setValue(new Observation(attrs, now));
+            } else if (now - entry.getValue().since >= settleTime && consumer.test(entry.getKey(), attrs)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * The size and modification time of a file, and since when it has them.
+     */
+    private static final class Observation {
+
+        private final long size;
+        private final long modified;
+        private final long since;
+
+        Observation(BasicFileAttributes attrs, long since) {
+            this.size = attrs.size();
+            this.modified = attrs.lastModifiedTime().toMillis();
+            this.since = since;
+        }
+
+        boolean isSame(BasicFileAttributes attrs) {
+            return size == attrs.size() && modified == attrs.lastModifiedTime().toMillis();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package nl.debijenkorf.tools.photoresizer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers which source files were processed into a target folder, so a next run over the same folder can skip the
+ * files that did not change. The manifest is a small text file in the target folder: a header with the fingerprint of
+ * the settings, followed by a line per processed file with its size, modification time, content hash and path
+ * relative to the source folder. When the fingerprint differs, because the preset, the fill color or another setting
+ * that changes the output was changed, the manifest is started over and every file is processed again.
+ *
+ * A line is appended, in a single write that is forced to disk, only after all images of its file are written and
+ * forced to disk. A run that is interrupted, also by a crash of the system, leaves at most a torn last line, which is
+ * dropped when the manifest is opened, so the next run resumes with the files that were not finished. A file of which
+ * an image was deleted from the target folder is processed again. Files that are processed again get a new line, the
+ * manifest is compacted when it is opened with more stale lines than entries.
+ *
+ * @author Maarten Blokker
+ */
+final class ProcessingManifest implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessingManifest.class);
+
+    static final String FILE_NAME = ".photoresizer-manifest";
+    private static final String HEADER = "photoresizer-manifest 1\t";
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final FileChannel channel;
+
+    private ProcessingManifest(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the manifest of a target folder, creating it when it does not exist or when it was written with other
+     * settings.
+     *
+     * @param dir the target folder
+     * @param fingerprint fingerprint of the settings of this run
+     * @param resume false to start over, forgetting all processed files
+     * @return the manifest
+     * @throws IOException when the manifest could not be read or written
+     */
+    static ProcessingManifest open(Path dir, String fingerprint, boolean resume) throws IOException {
+        Path file = dir.resolve(FILE_NAME);
+        String header = HEADER + fingerprint + "\n";
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        int lines = 0;
+
+        if (resume && Files.isRegularFile(file)) {
+            String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            if (content.startsWith(header)) {
+                // only complete lines count, an interrupted run may have left a torn last line
+                int end = content.lastIndexOf('\n');
+                for (String line : content.substring(header.length(), end + 1).split("\n")) {
+                    Entry entry = Entry.parse(line);
+                    if (entry != null) {
+                        entries.put(entry.key, entry);
+                        lines++;
+                    }
+                }
+            } else {
+                LOG.info("Settings changed since the last run, all files are processed again");
+            }
+        }
+
+        if (lines == 0 || lines > entries.size() * 2) {
+            StringBuilder content = new StringBuilder(header);
+            for (Entry entry : entries.values()) {
+                content.append(entry.format());
+            }
+            AtomicFileWriter.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // drops a torn last line, so the next line is appended after the last complete one
+            long size = channel.size();
+            ByteBuffer last = ByteBuffer.allocate(1);
+            while (size > 0 && (channel.read(last, size - 1) <= 0 || last.get(0) != '\n')) {
+                last.clear();
+                size--;
+            }
+            channel.truncate(size);
+            channel.position(size);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        ProcessingManifest manifest = new ProcessingManifest(channel);
+        manifest.entries.putAll(entries);
+        LOG.info("Manifest {} lists {} processed files", file, entries.size());
+        return manifest;
+    }
+
+    /**
+     * @param key path of the source file relative to the source folder
+     * @return the entry of the file when it was processed before, otherwise null
+     */
+    Entry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Records a processed file, call only after all its images are written.
+     *
+     * @param entry the entry of the file
+     * @throws IOException when the entry could not be appended
+     */
+    synchronized void record(Entry entry) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap(entry.format().getBytes(StandardCharsets.UTF_8));
+        while (line.hasRemaining()) {
+            channel.write(line);
+        }
+        // the images are forced to disk before they are recorded, the line must not outlive a crash without them
+        channel.force(false);
+        entries.put(entry.key, entry);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A processed source file.
+     */
+    static final class Entry {
+
+        final String key;
+        final long size;
+        final long modified;
+        final String hash;
+
+        /**
+         * @param key path of the source file relative to the source folder
+         * @param size size of the file in bytes
+         * @param modified modification time of the file in milliseconds
+         * @param hash hash of the content of the file, empty when it was not hashed
+         */
+        Entry(String key, long size, long modified, String hash) {
+            this.key = key;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        /**
+         * @return true when the file has the size and modification time it was processed with
+         */
+        boolean isUnchanged(long size, long modified) {
+            return this.size == size && this.modified == modified;
+        }
+
+        /**
+         * @return true when the file has the content it was processed with, as far as both were hashed
+         */
+        boolean isSameContent(long size, String hash) {
+            return this.size == size && !this.hash.isEmpty() && this.hash.equals(hash);
+        }
+
+        private String format() {
+            // the path goes last, it may contain any character but a line break
+            return size + "\t" + modified + "\t" + hash + "\t" + key + "\n";
+        }
+
+        private static Entry parse(String line) {
+            String[] fields = line.split("\t", 4);
+            if (fields.length != 4) {
+                return null;
+            }
+            try {
+                return new Entry(fields[3], Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+    }
+}
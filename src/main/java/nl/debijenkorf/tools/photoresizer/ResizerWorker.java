@@ -1,36 +1,77 @@
 package nl.debijenkorf.tools.photoresizer;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 import javafx.scene.paint.Color;
+import nl.debijenkorf.tools.photoresizer.resizer.ImageAligner;
 import nl.debijenkorf.tools.photoresizer.resizer.ImageResizerService;
+import nl.debijenkorf.tools.photoresizer.resizer.ImageResizerService.ImageProfile;
 import nl.debijenkorf.tools.photoresizer.resizer.Preset;
 import nl.debijenkorf.tools.photoresizer.resizer.impl.ImgScalrResizer;
+import nl.debijenkorf.tools.photoresizer.resizer.impl.KernelResizer;
 import nl.debijenkorf.tools.photoresizer.resizer.impl.SmartImageAligner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Processes every image of the source folder and its subfolders in a pipeline of three stages, each with its own
+ * threads: reading the source files, resizing them and writing the encoded images. Decoding, aligning, scaling and
+ * encoding are a single stage, the resizer renders straight from the decoded source into the encoder input.
+ *
+ * Files are handed to the pipeline while the folders are still being listed, see {@link FileDiscovery}, so the first
+ * files are resized right away even when listing a large share takes minutes. Progress is reported against the
+ * estimated total until the listing is done. The subfolders are recreated in the destination folder.
+ *
+ * Unchanged files are skipped when the worker runs again over the same folders, see {@link ProcessingManifest}.
+ * Files with the size and modification time they were processed with are skipped as soon as they are found, without
+ * being read. Files that kept their size but were touched are compared on the hash of their content, which is taken
+ * while they are read ahead.
+ *
+ * When watching, the worker keeps running after the files in the folders are processed, and hands new files to the
+ * same pipeline once they are completely written, see {@link FolderWatcher}. The threads, codecs and compiled code
+ * stay warm between files, so a file that is dropped into the folder is written within seconds. A file that fails is
+ * logged instead of stopping the worker.
+ *
+ * The stages are connected by bounded queues. A stage that is full holds back the thread that hands it the next file,
+ * so reading never runs further ahead than the queues allow, and at most one source is decoded per resize thread
+ * however many files the folder holds. Meanwhile the read and write threads keep the disk busy.
+ *
+ * The read stage also estimates from the header of every file how much heap resizing it takes. Files are only resized
+ * while their estimates fit in the {@link Configuration#getMemoryBudget() memory budget} together, so a batch of large
+ * sources is resized a few at a time instead of running out of memory. A file that needs more than the whole budget
+ * waits for the files before it and is resized on its own.
  *
  * @author Maarten Blokker
  */
@@ -39,14 +80,39 @@ public class ResizerWorker {
     private static final Logger LOG = LoggerFactory.getLogger(ResizerWorker.class);
 
     private static final AtomicLong THREAD_COUNTER = new AtomicLong();
-    private static final String IMAGE_FILE_PATTERN = "glob:**/*.{jpg,jpeg,png,bmp,gif,tif,tiff}";
+    public static final String IMAGE_FILE_PATTERN = "glob:**/*.{jpg,jpeg,png,bmp,gif,tif,tiff}";
+
+    /**
+     * Larger sources are not read ahead, they would push each other out of the page cache before they are decoded. They
+     * are only read to hash them when they are compared with the manifest.
+     */
+    private static final long MAX_READ_AHEAD_SIZE = 256 * 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> READ_BUFFERS
+            = ThreadLocal.withInitial(() -> ByteBuffer.allocate(1024 * 1024));
 
-    private final ImageResizerService resizer = new ImgScalrResizer(new SmartImageAligner());
+    private final ImageResizerService resizer = createResizer();
+    private final List<ImageProfile> profiles = Configuration.getProfiles();
     private final List<Path> processedFiles = new CopyOnWriteArrayList<>();
     private final AtomicBoolean running = new AtomicBoolean();
-    private final ListeningExecutorService service;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger watched = new AtomicInteger();
+    private final Set<ListenableFuture<?>> futures = ConcurrentHashMap.newKeySet();
+    private final Set<Path> inFlight = ConcurrentHashMap.newKeySet();
+    private final FileDiscovery discovery;
+    private volatile ProcessingManifest manifest;
+    private volatile FolderWatcher watcher;
+    private boolean watch;
+    private final int memoryBudget = Configuration.getMemoryBudget();
+    // fair, so a file that needs the whole budget is not overtaken by smaller ones
+    private final Semaphore memory = new Semaphore(memoryBudget, true);
+    private final Stage feeding;
+    private final Stage reading;
+    private final Stage resizing;
+    private final Stage writing;
     private final Preset preset;
-    private final Color color;
+    private final java.awt.Color color;
     private final Path srcDir;
     private final Path dstDir;
 
@@ -55,26 +121,40 @@ public class ResizerWorker {
     private boolean finished;
 
     public ResizerWorker(Preset preset, Color color, Path srcDir, Path dstDir) {
+        // fails on misspelled settings before any file is queued
+        Configuration.validate();
         this.preset = preset;
-        this.color = color;
+        this.color = new java.awt.Color(
+                (float) color.getRed(),
+                (float) color.getGreen(),
+                (float) color.getBlue(),
+                (float) color.getOpacity()
+        );
         this.srcDir = srcDir;
         this.dstDir = dstDir;
 
-        int cores = Runtime.getRuntime().availableProcessors();
-        int threads = Math.max(2, cores * 2 - 1);
-        service = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads, (r) -> {
-            Thread t = new Thread(r);
-            t.setName("resize-worker-" + THREAD_COUNTER.getAndIncrement());
-            t.setDaemon(false);
-
-            return t;
-        }));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(IMAGE_FILE_PATTERN);
+        // the destination may be inside the source folder, its images are not resized again
+        discovery = new FileDiscovery(srcDir, matcher, dstDir, Configuration.getDiscoveryThreads());
+        int queueSize = Configuration.getPipelineQueueSize();
+        feeding = new Stage("resize-feeder", 1, 0);
+        reading = new Stage("resize-reader", Configuration.getReadThreads(), queueSize);
+        resizing = new Stage("resize-worker", Configuration.getResizeThreads(), queueSize);
+        writing = new Stage("resize-writer", Configuration.getWriteThreads(), queueSize);
     }
 
     public void setListener(Listener listener) {
         this.listener = listener;
     }
 
+    /**
+     * @param watch true to keep watching the source folder for new files after the files in it are processed, until
+     * the worker is stopped
+     */
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
     public Throwable getException() {
         return exception;
     }
@@ -86,19 +166,20 @@ public class ResizerWorker {
     public void start() {
         if (running.compareAndSet(false, true)) {
             LOG.info("Starting processing of files");
-            Futures.addCallback(findFiles(), handleResult((files) -> {
-                LOG.info("Found {} files to process", files.size());
-                List<ListenableFuture<?>> futures = files.stream().map(this::processFile).collect(Collectors.toList());
-                AtomicInteger current = new AtomicInteger();
-
-                futures.forEach((future) -> {
-                    future.addListener(() -> {
-                        setProgress(current.incrementAndGet() / (double) files.size());
-                    }, MoreExecutors.directExecutor());
-                });
-
-                Futures.addCallback(Futures.allAsList(futures), handleResult((result) -> {
-                    finish(true);
+            if (watch) {
+                try {
+                    watcher = new FolderWatcher(srcDir, FileSystems.getDefault().getPathMatcher(IMAGE_FILE_PATTERN),
+                            dstDir, Configuration.getWatchSettleTime());
+                } catch (IOException ex) {
+                    running.set(false);
+                    throw new IllegalStateException("Failed to watch directory: " + srcDir, ex);
+                }
+            }
+            Futures.addCallback(feeding.submit(this::feedFiles), handleResult((futures) -> {
+                Futures.addCallback(Futures.successfulAsList(futures), handleResult((result) -> {
+                    if (running.get()) {
+                        finish(true);
+                    }
                 }));
             }));
         } else {
@@ -108,54 +189,285 @@ public class ResizerWorker {
 
     public void stop() {
         finish(true);
-        service.shutdown();
+        shutdown();
     }
 
     public List<Path> getProcessedFiles() {
         return Collections.unmodifiableList(processedFiles);
     }
 
-    private ListenableFuture<List<Path>> findFiles() {
-        return service.submit(() -> {
-            try {
-                PathMatcher matcher = FileSystems.getDefault().getPathMatcher(IMAGE_FILE_PATTERN);
+    private static ImageResizerService createResizer() {
+        ImageAligner aligner = new SmartImageAligner();
+        return Configuration.getResamplingKernel()
+                .<ImageResizerService>map((kernel) -> new KernelResizer(aligner, kernel))
+                .orElseGet(() -> new ImgScalrResizer(aligner));
+    }
 
-                return Files.list(srcDir)
-                        .filter(matcher::matches)
-                        .collect(Collectors.toList());
-            } catch (IOException ex) {
-                throw new IllegalStateException("Failed to collect files from directory", ex);
+    /**
+     * Hands every file to the pipeline as soon as it is found, waiting while the read stage is full, until all folders
+     * are listed or the worker stopped. When watching, it then hands over new files until the worker stops.
+     *
+     * @return the futures of the files that are still being processed
+     */
+    private List<ListenableFuture<?>> feedFiles() {
+        try {
+            manifest = ProcessingManifest.open(dstDir, fingerprint(), Configuration.isIncremental());
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to open the manifest of directory: " + dstDir, ex);
+        }
+
+        if (watcher != null) {
+            // every folder is watched before it is listed, files that arrive during the listing are not missed
+            discovery.setFolderListener(watcher::register);
+        }
+        try {
+            discovery.walk(this::handOver);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to collect files from directory", ex);
+        }
+        LOG.info("Found {} files to process, skipped {} unchanged files", discovery.getFound(), skipped.get());
+
+        if (watcher != null && running.get()) {
+            LOG.info("Watching {} for new files", srcDir);
+            watcher.watch((file, attrs) -> {
+                // a file that changed again while it is processed is handed over again once it is done
+                if (inFlight.contains(file)) {
+                    return false;
+                }
+                watched.incrementAndGet();
+                handOver(file, attrs);
+                return true;
+            });
+        }
+        return new ArrayList<>(futures);
+    }
+
+    /**
+     * Hands a single file to the pipeline, unless it did not change since it was last processed.
+     */
+    private void handOver(Path file, BasicFileAttributes attrs) {
+        if (!running.get()) {
+            discovery.cancel();
+            return;
+        }
+        ProcessingManifest.Entry previous = manifest.get(key(file));
+        if (previous != null && !isWritten(file)) {
+            // an image was deleted from the target folder to have it written again
+            previous = null;
+        }
+        if (previous != null && previous.isUnchanged(attrs.size(), attrs.lastModifiedTime().toMillis())) {
+            LOG.debug("Skipping unchanged file: {}", file);
+            skipped.incrementAndGet();
+            updateProgress();
+            return;
+        }
+
+        inFlight.add(file);
+        ListenableFuture<?> future = processFile(file, attrs, previous);
+        futures.add(future);
+        future.addListener(() -> {
+            futures.remove(future);
+            inFlight.remove(file);
+            updateProgress();
+        }, MoreExecutors.directExecutor());
+        Futures.addCallback(future, handleResult((result) -> {
+        }, (t) -> {
+            if (watcher != null && running.get()) {
+                // a single broken file does not stop the watch, it is tried again on the next run
+                LOG.error("Failed to process file: {}", file, t);
+            } else {
+                // the first failure stops the worker, without waiting for the files after it
+                exception(t);
             }
-        });
+        }));
     }
 
-    private ListenableFuture<?> processFile(Path srcFile) {
+    private void updateProgress() {
+        setProgress(completed.incrementAndGet() / (discovery.getEstimatedTotal() + watched.get()));
+    }
+
+    /**
+     * @return fingerprint of everything that changes the written images
+     */
+    private String fingerprint() {
+        String settings = Configuration.getOutputSettings()
+                + ",preset=" + preset.getTopLine() + "/" + preset.getBaseLine() + "/" + preset.getLeftRightMargin()
+                + "/" + preset.getValign()
+                + ",color=" + Integer.toHexString(color.getRGB())
+                + ",source=" + srcDir.toAbsolutePath().normalize();
+        return Hashing.murmur3_128().hashString(settings, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * @return the path of the file relative to the source folder, the same on every platform
+     */
+    private String key(Path file) {
+        return srcDir.relativize(file).toString().replace(srcDir.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * @return the image at the target size the file is written to
+     */
+    private Path target(Path srcFile) {
         String filename = srcFile.getFileName().toString();
         int index = filename.indexOf('.');
         if (index > 0) {
             filename = filename.substring(0, index);
         }
+        return dstDir.resolve(srcDir.relativize(srcFile)).resolveSibling(filename + ".jpg");
+    }
 
-        Path dstFile = dstDir.resolve(filename + ".jpg");
+    /**
+     * @return the image of a profile the file is written to
+     */
+    private Path target(Path dstFile, ImageProfile profile) {
+        return dstDir.resolve(profile.name()).resolve(dstDir.relativize(dstFile));
+    }
 
-        java.awt.Color awtColor = new java.awt.Color(
-                (float) color.getRed(),
-                (float) color.getGreen(),
-                (float) color.getBlue(),
-                (float) color.getOpacity()
-        );
+    /**
+     * @return true when all images of the file are in the target folder
+     */
+    private boolean isWritten(Path srcFile) {
+        Path dstFile = target(srcFile);
+        if (profiles.isEmpty()) {
+            return Files.exists(dstFile);
+        }
+        return profiles.stream().allMatch((profile) -> Files.exists(target(dstFile, profile)));
+    }
 
-        return service.submit(() -> {
-            try (InputStream in = Files.newInputStream(srcFile);
-                    OutputStream out = Files.newOutputStream(dstFile, StandardOpenOption.CREATE)) {
-                resizer.process(preset, awtColor, true, in, out);
-                processedFiles.add(dstFile);
-                LOG.info("Processed file: {}", dstFile);
-            } catch (IOException ex) {
-                deleteQuitly(dstFile);
-                throw new IllegalStateException("Failed to process file: " + srcFile, ex);
+    private ListenableFuture<?> processFile(Path srcFile, BasicFileAttributes attrs,
+            ProcessingManifest.Entry previous) {
+        Path dstFile = target(srcFile);
+
+        // every stage hands its result to the next one on its own thread, which waits while the next stage is full
+        ListenableFuture<Source> read = reading.submit(() -> read(srcFile, attrs, previous));
+        return Futures.transformAsync(read, (source) -> {
+            if (source == null) {
+                return Futures.immediateFuture(null);
             }
-        });
+            ListenableFuture<Map<Path, byte[]>> resized = resizing.submit(
+                    () -> resize(srcFile, dstFile, source.megabytes));
+            return Futures.transformAsync(resized,
+                    (images) -> writing.submit(() -> write(srcFile, source, images)), MoreExecutors.directExecutor());
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Reads the file ahead and estimates what resizing it takes.
+     *
+     * @param previous the manifest entry of the file when it was processed before
+     * @return the file to resize, or null when it has the content it was processed with
+     */
+    private Source read(Path srcFile, BasicFileAttributes attrs, ProcessingManifest.Entry previous) {
+        // a file that was touched but kept its size may still have the content it was processed with
+        boolean compare = previous != null && previous.size == attrs.size();
+        ProcessingManifest.Entry entry = new ProcessingManifest.Entry(key(srcFile), attrs.size(),
+                attrs.lastModifiedTime().toMillis(), readAhead(srcFile, compare));
+        if (compare && previous.isSameContent(entry.size, entry.hash)) {
+            LOG.info("Skipping file with unchanged content: {}", srcFile);
+            record(srcFile, entry);
+            return null;
+        }
+        return new Source(entry, estimate(srcFile));
+    }
+
+    /**
+     * Reads the file once, so it is in the page cache by the time it is decoded, and hashes its content on the way.
+     *
+     * @param hash true to hash the file even when it is too large to read ahead
+     * @return the hash of the content, empty when the file was too large to read ahead
+     */
+    private static String readAhead(Path file, boolean hash) {
+        ByteBuffer buffer = READ_BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > MAX_READ_AHEAD_SIZE && !hash) {
+                return "";
+            }
+            Hasher hasher = Hashing.murmur3_128().newHasher();
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                hasher.putBytes(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            return hasher.hash().toString();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to read file: " + file, ex);
+        }
+    }
+
+    /**
+     * @return the heap resizing the file takes in megabytes, at most the whole budget
+     */
+    private int estimate(Path file) {
+        long megabytes;
+        try {
+            megabytes = (resizer.estimateMemory(file, profiles) >> 20) + 1;
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to process file: " + file, ex);
+        }
+
+        if (megabytes > memoryBudget) {
+            LOG.info("File {} needs about {} MB, more than the memory budget of {} MB, it is resized on its own",
+                    file, megabytes, memoryBudget);
+            return memoryBudget;
+        }
+        return (int) megabytes;
+    }
+
+    /**
+     * Resizes the file once its estimate fits in the memory budget.
+     *
+     * @return the encoded images by the file they are written to
+     */
+    private Map<Path, byte[]> resize(Path srcFile, Path dstFile, int megabytes) {
+        Map<Path, byte[]> images = new LinkedHashMap<>();
+        memory.acquireUninterruptibly(megabytes);
+        try {
+            if (profiles.isEmpty()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                resizer.process(preset, color, true, srcFile, out);
+                images.put(dstFile, out.toByteArray());
+            } else {
+                resizer.process(color, true, srcFile, profiles, (profile, encoded) -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    encoded.writeTo(out);
+                    images.put(target(dstFile, profile), out.toByteArray());
+                });
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to process file: " + srcFile, ex);
+        } finally {
+            memory.release(megabytes);
+        }
+        return images;
+    }
+
+    private Void write(Path srcFile, Source source, Map<Path, byte[]> images) {
+        try {
+            for (Map.Entry<Path, byte[]> image : images.entrySet()) {
+                Files.createDirectories(image.getKey().getParent());
+                AtomicFileWriter.write(image.getKey(), image.getValue());
+                processedFiles.add(image.getKey());
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to write file: " + srcFile, ex);
+        }
+        record(srcFile, source.entry);
+
+        if (profiles.isEmpty()) {
+            LOG.info("Processed file: {}", images.keySet().iterator().next());
+        } else {
+            LOG.info("Processed file: {} for {} profiles", srcFile, profiles.size());
+        }
+        return null;
+    }
+
+    private void record(Path srcFile, ProcessingManifest.Entry entry) {
+        try {
+            manifest.record(entry);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to record file in the manifest: " + srcFile, ex);
+        }
     }
 
     private void setProgress(double progress) {
@@ -164,34 +476,72 @@ public class ResizerWorker {
         }
     }
 
-    private void exception(Throwable t) {
+    private synchronized void exception(Throwable t) {
+        if (!running.get()) {
+            // files that were still in the pipeline when the worker stopped or failed
+            LOG.debug("Ignoring failure after processing stopped", t);
+            return;
+        }
         LOG.error("Processing stopped due to exception", t);
-        service.shutdown();
+        shutdown();
         exception = t;
         finish(false);
     }
 
+    private void shutdown() {
+        discovery.cancel();
+        closeWatcher();
+        feeding.shutdown();
+        reading.shutdown();
+        resizing.shutdown();
+        writing.shutdown();
+        try {
+            // codecs that are still in use are released when their file is done
+            resizer.close();
+        } catch (IOException ex) {
+            LOG.error("Failed to release the resizer", ex);
+        }
+    }
+
     private void finish(boolean succesfull) {
         LOG.info("Processing finished, succesfull={}", succesfull);
         running.set(false);
         finished = true;
+        closeManifest();
         if (listener != null) {
             listener.onProgress(this, 1D);
             listener.onFinish(this, succesfull);
         }
     }
 
-    private void deleteQuitly(Path file) {
-        if (Files.exists(file)) {
+    private void closeWatcher() {
+        FolderWatcher current = watcher;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ex) {
+                LOG.error("Failed to stop watching the source folder", ex);
+            }
+        }
+    }
+
+    private void closeManifest() {
+        ProcessingManifest current = manifest;
+        if (current != null) {
             try {
-                Files.delete(file);
+                // files that are still being written are not recorded, they are processed again on the next run
+                current.close();
             } catch (IOException ex) {
-                LOG.error("Failed to delete file on exception");
+                LOG.error("Failed to close the manifest", ex);
             }
         }
     }
 
     private <T> FutureCallback<T> handleResult(Consumer<T> handler) {
+        return handleResult(handler, this::exception);
+    }
+
+    private <T> FutureCallback<T> handleResult(Consumer<T> handler, Consumer<Throwable> failureHandler) {
         return new FutureCallback<T>() {
             @Override
             public void onSuccess(T result) {
@@ -200,11 +550,70 @@ public class ResizerWorker {
 
             @Override
             public void onFailure(Throwable t) {
-                exception(t);
+                failureHandler.accept(t);
             }
         };
     }
 
+    /**
+     * A file that is read ahead, with the heap resizing it takes.
+     */
+    private static final class Source {
+
+        private final ProcessingManifest.Entry entry;
+        private final int megabytes;
+
+        Source(ProcessingManifest.Entry entry, int megabytes) {
+            this.entry = entry;
+            this.megabytes = megabytes;
+        }
+    }
+
+    /**
+     * A fixed pool of threads with a bounded queue. Submitting waits while the threads are busy and the queue is full.
+     */
+    private static final class Stage {
+
+        private final ListeningExecutorService executor;
+        private final Semaphore permits;
+
+        /**
+         * @param name name prefix of the threads
+         * @param threads amount of threads
+         * @param queueSize amount of tasks that may wait for a thread
+         */
+        Stage(String name, int threads, int queueSize) {
+            this.permits = new Semaphore(threads + queueSize);
+            this.executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads, (r) -> {
+                Thread t = new Thread(r);
+                t.setName(name + "-" + THREAD_COUNTER.getAndIncrement());
+                t.setDaemon(false);
+
+                return t;
+            }));
+        }
+
+        <T> ListenableFuture<T> submit(Callable<T> task) {
+            permits.acquireUninterruptibly();
+            try {
+                return executor.submit(() -> {
+                    try {
+                        return task.call();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                permits.release();
+                return Futures.immediateFailedFuture(ex);
+            }
+        }
+
+        void shutdown() {
+            executor.shutdown();
+        }
+    }
+
     public static interface Listener {
 
         void onProgress(ResizerWorker worker, double progress);
@@ -43,7 +43,8 @@ public class ResizerController {
         Path dstDir = this.view.targetFolder().get();
 
         ResizerWorker worker = new ResizerWorker(preset, color, srcDir, dstDir);
-        
+        worker.setWatch(this.view.watchProperty().get());
+
         ProgressView progressView = new ProgressView();
         progressView.setOnCancel((evt) -> {
             worker.stop();
@@ -3,10 +3,12 @@ package nl.debijenkorf.tools.photoresizer.gui;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.ColorPicker;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.TextField;
@@ -29,6 +31,7 @@ public class ResizerView extends AbstractView {
     public static final String PREFERENCE_LAST_SOURCE_FOLDER = "pref.last.source.folder";
     public static final String PREFERENCE_LAST_TARGET_FOLDER = "pref.last.target.folder";
     public static final String PREFERENCE_LAST_PRESET_INDEX = "pref.last.preset.index";
+    public static final String PREFERENCE_WATCH = "pref.watch";
 
     private final ObjectProperty<Path> sourceFolder = new SimpleObjectProperty<>();
     private final ObjectProperty<Path> targetFolder = new SimpleObjectProperty<>();
@@ -68,6 +71,9 @@ public class ResizerView extends AbstractView {
     @FXML
     private ColorPicker cboxColor;
 
+    @FXML
+    private CheckBox chkWatch;
+
     public ResizerView(ResizerController controller) {
         super("/fxml/Scene.fxml");
         this.controller = controller;
@@ -89,6 +95,12 @@ public class ResizerView extends AbstractView {
 
         initMeasurements();
 
+        //keep watching the source folder after the batch, when it was enabled last time
+        Configuration.getPreference(PREFERENCE_WATCH).map(Boolean::parseBoolean).ifPresent(chkWatch::setSelected);
+        watchProperty().addListener((obs, oldVal, currentVal) -> {
+            Configuration.setPreference(PREFERENCE_WATCH, currentVal.toString());
+        });
+
         btnStart.setOnAction((evt) -> controller.start());
         btnCancel.setOnAction((evt) -> Platform.exit());
     }
@@ -142,6 +154,10 @@ public class ResizerView extends AbstractView {
         return cboxColor.valueProperty();
     }
 
+    public BooleanProperty watchProperty() {
+        return chkWatch.selectedProperty();
+    }
+
     public ObjectProperty<Preset> selectedPreset() {
         return selectedPreset;
     }
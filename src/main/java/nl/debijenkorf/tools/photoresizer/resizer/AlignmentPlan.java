@@ -0,0 +1,206 @@
+package nl.debijenkorf.tools.photoresizer.resizer;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Describes what aligning and scaling does to an image, without touching its pixels: the part of the source image that
+ * is kept, the fill added around it, the size the padded image is scaled to and the canvas that is cut out of the
+ * scaled image. The canvas always starts at the top left corner of the scaled image.
+ *
+ * @author Maarten Blokker
+ */
+public final class AlignmentPlan {
+
+    private final int sourceX;
+    private final int sourceY;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int topPadding;
+    private final int bottomPadding;
+    private final int leftPadding;
+    private final int rightPadding;
+    private final int scaledWidth;
+    private final int scaledHeight;
+    private final int canvasWidth;
+    private final int canvasHeight;
+
+    /**
+     * Creates an unscaled plan.
+     *
+     * @param sourceX first column of the source image that is kept
+     * @param sourceY first row of the source image that is kept
+     * @param sourceWidth amount of columns that are kept
+     * @param sourceHeight amount of rows that are kept
+     * @param topPadding amount of fill rows above the source
+     * @param bottomPadding amount of fill rows below the source
+     * @param leftPadding amount of fill columns left of the source
+     * @param rightPadding amount of fill columns right of the source
+     */
+    public AlignmentPlan(int sourceX, int sourceY, int sourceWidth, int sourceHeight,
+            int topPadding, int bottomPadding, int leftPadding, int rightPadding) {
+        this(sourceX, sourceY, sourceWidth, sourceHeight, topPadding, bottomPadding, leftPadding, rightPadding,
+                leftPadding + sourceWidth + rightPadding, topPadding + sourceHeight + bottomPadding,
+                leftPadding + sourceWidth + rightPadding, topPadding + sourceHeight + bottomPadding);
+    }
+
+    private AlignmentPlan(int sourceX, int sourceY, int sourceWidth, int sourceHeight,
+            int topPadding, int bottomPadding, int leftPadding, int rightPadding,
+            int scaledWidth, int scaledHeight, int canvasWidth, int canvasHeight) {
+        if (sourceWidth <= 0 || sourceHeight <= 0) {
+            throw new IllegalArgumentException("source region cannot be empty");
+        }
+        this.sourceX = sourceX;
+        this.sourceY = sourceY;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.topPadding = topPadding;
+        this.bottomPadding = bottomPadding;
+        this.leftPadding = leftPadding;
+        this.rightPadding = rightPadding;
+        this.scaledWidth = scaledWidth;
+        this.scaledHeight = scaledHeight;
+        this.canvasWidth = canvasWidth;
+        this.canvasHeight = canvasHeight;
+    }
+
+    /**
+     * @param image the image
+     * @return plan that keeps the whole image as is
+     */
+    public static AlignmentPlan of(BufferedImage image) {
+        return new AlignmentPlan(0, 0, image.getWidth(), image.getHeight(), 0, 0, 0, 0);
+    }
+
+    /**
+     * Scales the padded image to fit the target, and cuts the canvas from the top left corner when it is still larger.
+     * This is the same geometry as {@code Scalr.resize} in its automatic mode followed by {@code Scalr.crop}:
+     * landscape images are fit to the target width and portrait images to the target height, and an image that
+     * already matches the target in that dimension is not scaled at all.
+     *
+     * @param targetWidth width of the target
+     * @param targetHeight height of the target
+     * @return the scaled plan
+     */
+    public AlignmentPlan fit(int targetWidth, int targetHeight) {
+        int width = getPaddedWidth();
+        int height = getPaddedHeight();
+        float ratio = (float) height / width;
+
+        int fitWidth = width;
+        int fitHeight = height;
+        if (ratio <= 1) {
+            if (targetWidth != width) {
+                fitWidth = targetWidth;
+                fitHeight = Math.max(1, Math.round(targetWidth * ratio));
+            }
+        } else if (targetHeight != height) {
+            fitWidth = Math.max(1, Math.round(targetHeight / ratio));
+            fitHeight = targetHeight;
+        }
+
+        return new AlignmentPlan(sourceX, sourceY, sourceWidth, sourceHeight,
+                topPadding, bottomPadding, leftPadding, rightPadding,
+                fitWidth, fitHeight, Math.min(fitWidth, targetWidth), Math.min(fitHeight, targetHeight));
+    }
+
+    /**
+     * Scales the padded image to an exact size instead of fitting it, for plans that have to match the geometry of
+     * another plan.
+     *
+     * @param scaledWidth width the padded image is scaled to
+     * @param scaledHeight height the padded image is scaled to
+     * @param canvasWidth width of the canvas, at most the scaled width
+     * @param canvasHeight height of the canvas, at most the scaled height
+     * @return the scaled plan
+     */
+    public AlignmentPlan scale(int scaledWidth, int scaledHeight, int canvasWidth, int canvasHeight) {
+        if (canvasWidth > scaledWidth || canvasHeight > scaledHeight) {
+            throw new IllegalArgumentException("canvas cannot be larger than the scaled image");
+        }
+        return new AlignmentPlan(sourceX, sourceY, sourceWidth, sourceHeight,
+                topPadding, bottomPadding, leftPadding, rightPadding,
+                scaledWidth, scaledHeight, canvasWidth, canvasHeight);
+    }
+
+    public int getSourceX() {
+        return sourceX;
+    }
+
+    public int getSourceY() {
+        return sourceY;
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    public int getTopPadding() {
+        return topPadding;
+    }
+
+    public int getBottomPadding() {
+        return bottomPadding;
+    }
+
+    public int getLeftPadding() {
+        return leftPadding;
+    }
+
+    public int getRightPadding() {
+        return rightPadding;
+    }
+
+    /**
+     * @return width of the source region with the fill around it
+     */
+    public int getPaddedWidth() {
+        return leftPadding + sourceWidth + rightPadding;
+    }
+
+    /**
+     * @return height of the source region with the fill around it
+     */
+    public int getPaddedHeight() {
+        return topPadding + sourceHeight + bottomPadding;
+    }
+
+    /**
+     * @return width the padded image is scaled to
+     */
+    public int getScaledWidth() {
+        return scaledWidth;
+    }
+
+    /**
+     * @return height the padded image is scaled to
+     */
+    public int getScaledHeight() {
+        return scaledHeight;
+    }
+
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+
+    /**
+     * @return true if the plan adds fill around the source region
+     */
+    public boolean isPadded() {
+        return topPadding > 0 || bottomPadding > 0 || leftPadding > 0 || rightPadding > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "AlignmentPlan{" + "source=" + sourceX + "," + sourceY + " " + sourceWidth + "x" + sourceHeight
+                + ", padding=" + topPadding + "," + rightPadding + "," + bottomPadding + "," + leftPadding
+                + ", scaled=" + scaledWidth + "x" + scaledHeight + ", canvas=" + canvasWidth + "x" + canvasHeight + '}';
+    }
+}
@@ -2,6 +2,8 @@ package nl.debijenkorf.tools.photoresizer.resizer;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.util.List;
+import nl.debijenkorf.tools.photoresizer.resizer.ImageResizerService.ImageProfile;
 import nl.debijenkorf.tools.photoresizer.resizer.Preset.VAlign;
 
 
@@ -24,4 +26,29 @@ public interface ImageAligner {
      */
     BufferedImage align(BufferedImage image, double canvasAspectRatio, int bottomPercentage, int minTopPercentage,
                         int minLeftRightPercentage, Color fillColor, VAlign vAlign);
+
+    /**
+     * Same as {@link #align(BufferedImage, double, int, int, int, Color, VAlign)}, but only describes the trim and the
+     * padding instead of creating the aligned image.
+     *
+     * @param image image to process
+     * @param canvasAspectRatio ratio of width to height of the target canvas
+     * @param bottomPercentage how many percent bottom fill must be to the total height of the image
+     * @param minTopPercentage how many percent top fill is at the least to the total height of the image
+     * @param minLeftRightPercentage how many percent combined left + right fill is to the total width of the image
+     * @param vAlign
+     * @return the unscaled alignment plan
+     */
+    AlignmentPlan plan(BufferedImage image, double canvasAspectRatio, int bottomPercentage, int minTopPercentage,
+                       int minLeftRightPercentage, VAlign vAlign);
+
+    /**
+     * Plans the alignment of an image for several profiles at once, with the aspect ratio, margins and vertical
+     * alignment of each profile. The edges of the image are only detected once.
+     *
+     * @param image image to process
+     * @param profiles the profiles, which must have a size
+     * @return the unscaled alignment plan of every profile, in the same order
+     */
+    List<AlignmentPlan> plan(BufferedImage image, List<ImageProfile> profiles);
 }
@@ -1,19 +1,70 @@
 package nl.debijenkorf.tools.photoresizer.resizer;
 
 import java.awt.*;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
 
 /**
  * Interface for image resizer service. It contains list of image definitions and their properties.
  *
  * Created by Daniel on 18/04/15.
  */
-public interface ImageResizerService {
+public interface ImageResizerService extends Closeable {
 
     void process (Preset preset, Color color, boolean align, InputStream image, OutputStream os) throws IOException;
 
+    /**
+     * Same as {@link #process(Preset, Color, boolean, InputStream, OutputStream)}, but reads the image straight from
+     * the file, so decoders can seek in it without it being copied first.
+     */
+    void process (Preset preset, Color color, boolean align, Path image, OutputStream os) throws IOException;
+
+    /**
+     * Decodes the image and detects its edges once, and renders it for every profile. Every profile is aligned with
+     * its own margins and vertical alignment, and encoded with its own quality and chroma subsampling.
+     *
+     * @param color fill color of the padding
+     * @param align when false the images are only scaled
+     * @param image the source file
+     * @param profiles the profiles to render, which must have a size
+     * @param output receives the encoded image of every profile
+     */
+    void process (Color color, boolean align, Path image, List<ImageProfile> profiles, Output output)
+            throws IOException;
+
+    /**
+     * Estimates from the header of the image how much heap processing it takes at most: the decoded and normalized
+     * source, at the resolution it is decoded at, and the canvases.
+     *
+     * @param image the source file
+     * @param profiles the profiles the image is rendered for, empty when it is rendered at the target size
+     * @return the estimated amount of bytes
+     * @throws IOException when the header can not be read
+     */
+    long estimateMemory (Path image, List<ImageProfile> profiles) throws IOException;
+
+    /**
+     * Receives the encoded images of {@link #process(Color, boolean, Path, List, Output)}.
+     */
+    @FunctionalInterface
+    interface Output {
+
+        void write(ImageProfile profile, Encoded encoded) throws IOException;
+    }
+
+    /**
+     * An encoded image.
+     */
+    @FunctionalInterface
+    interface Encoded {
+
+        void writeTo(OutputStream os) throws IOException;
+    }
+
     enum ImageProfile {
 
         /**
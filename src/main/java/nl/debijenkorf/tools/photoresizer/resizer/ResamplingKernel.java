@@ -0,0 +1,56 @@
+package nl.debijenkorf.tools.photoresizer.resizer;
+
+/**
+ * Convolution kernels for resampling, stretched by the downscale factor. Both have negative lobes, so they keep edges
+ * sharper than an area average, at the cost of a wider support.
+ *
+ * @author Maarten Blokker
+ */
+public enum ResamplingKernel {
+
+    /**
+     * Windowed sinc with three lobes, the sharpest of the two, with slight ringing on hard edges.
+     */
+    LANCZOS3(3),
+    /**
+     * Mitchell-Netravali cubic with B = C = 1/3, a compromise between blurring and ringing.
+     */
+    MITCHELL(2);
+
+    private final double radius;
+
+    ResamplingKernel(double radius) {
+        this.radius = radius;
+    }
+
+    /**
+     * @return the radius of the kernel in pixels, before it is stretched
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * @param x distance to the center in pixels, before the kernel is stretched
+     * @return the unnormalized weight
+     */
+    public double weight(double x) {
+        x = Math.abs(x);
+        if (x >= radius) {
+            return 0;
+        }
+        switch (this) {
+            case LANCZOS3:
+                return x == 0 ? 1 : radius * Math.sin(Math.PI * x) * Math.sin(Math.PI * x / radius)
+                        / (Math.PI * Math.PI * x * x);
+            default:
+                double b = 1D / 3;
+                double c = 1D / 3;
+                if (x < 1) {
+                    return ((12 - 9 * b - 6 * c) * x * x * x + (-18 + 12 * b + 6 * c) * x * x + (6 - 2 * b)) / 6;
+                }
+                return ((-b - 6 * c) * x * x * x + (6 * b + 30 * c) * x * x + (-12 * b - 48 * c) * x
+                        + (8 * b + 24 * c)) / 6;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package nl.debijenkorf.tools.photoresizer.resizer;
+
+/**
+ * Trade off between the speed and the quality of scaling. Except for {@link #DRAFT}, the filter is chosen per image
+ * and per axis from the actual scale factor. The qualities are declared from low to high, and every profile can have
+ * its own, see {@code Configuration.getScalingQuality(ImageProfile)}.
+ *
+ * @author Maarten Blokker
+ */
+public enum ScalingQuality {
+
+    /**
+     * Nearest neighbour from a source decoded close to the target size, for fast proofs.
+     */
+    DRAFT,
+    /**
+     * From a source decoded close to the target size like a draft, but resampled with a tent filter as wide as the
+     * scale factor when downscaling less than two times, where the narrow box of the area average lets fine detail
+     * alias. Larger factors average the area of every pixel. This pays off for outputs that are large compared to
+     * the source, for small profiles {@link #BEST} is about as fast.
+     */
+    AUTO,
+    /**
+     * Always averages the area of every pixel, from a source decoded with the configured oversampling.
+     */
+    BEST
+}
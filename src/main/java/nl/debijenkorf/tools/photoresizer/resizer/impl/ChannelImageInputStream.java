@@ -0,0 +1,124 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Image input stream that reads a file with positional reads on a file channel. Decoders can seek anywhere in the
+ * file, where {@code ImageIO.createImageInputStream} on an input stream first copies the whole file to a cache.
+ *
+ * Small reads are served from a buffer, larger reads go straight from the channel into the array of the caller. The
+ * file is not mapped, so closing the stream releases it right away, and a file that is truncated while it is read
+ * ends the stream instead of crashing the virtual machine.
+ *
+ * @author Maarten Blokker
+ */
+final class ChannelImageInputStream extends ImageInputStreamImpl {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // file position of the first byte in the buffer, the buffer holds the bytes up to its limit
+    private long bufferPos;
+
+    private ChannelImageInputStream(FileChannel channel) {
+        this.channel = channel;
+        ((Buffer) buffer).limit(0);
+    }
+
+    /**
+     * @param file the file to read
+     * @return a stream over the file, which closes the file when it is closed
+     * @throws IOException when the file can not be opened
+     */
+    static ImageInputStream open(Path file) throws IOException {
+        return new ChannelImageInputStream(FileChannel.open(file, StandardOpenOption.READ));
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (!isBuffered(streamPos) && !fill(streamPos)) {
+            return -1;
+        }
+        return buffer.get((int) (streamPos++ - bufferPos)) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException("off < 0 || len < 0 || off + len > b.length");
+        }
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+
+        // fills the whole array when the file is long enough, some decoders do not check for short reads
+        int total = 0;
+        while (total < len) {
+            int count;
+            if (isBuffered(streamPos)) {
+                int index = (int) (streamPos - bufferPos);
+                count = Math.min(len - total, buffer.limit() - index);
+                // through Buffer, which links on Java 8 when compiled on a newer JDK
+                ((Buffer) buffer).position(index);
+                buffer.get(b, off + total, count);
+            } else if (len - total >= BUFFER_SIZE) {
+                // not worth copying through the buffer
+                count = channel.read(ByteBuffer.wrap(b, off + total, len - total), streamPos);
+            } else if (fill(streamPos)) {
+                continue;
+            } else {
+                count = -1;
+            }
+            if (count <= 0) {
+                break;
+            }
+            total += count;
+            streamPos += count;
+        }
+        return total == 0 ? -1 : total;
+    }
+
+    @Override
+    public long length() {
+        try {
+            return channel.size();
+        } catch (IOException ex) {
+            return -1L;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        channel.close();
+    }
+
+    private boolean isBuffered(long pos) {
+        return pos >= bufferPos && pos < bufferPos + buffer.limit();
+    }
+
+    /**
+     * Reads the bytes from a position on into the buffer.
+     *
+     * @return false at the end of the file
+     */
+    private boolean fill(long pos) throws IOException {
+        ((Buffer) buffer).clear();
+        bufferPos = pos;
+        int count = channel.read(buffer, pos);
+        ((Buffer) buffer).flip();
+        return count > 0;
+    }
+}
@@ -0,0 +1,342 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import nl.debijenkorf.tools.photoresizer.resizer.impl.SmartImageAligner.ImageEdges;
+
+/**
+ * Finds the image edges on a box filtered proxy of the image first, and then refines every edge in a narrow band of
+ * the full resolution raster.
+ *
+ * Every proxy pixel holds the sum of the distances to white of the color channels of a block of pixels. As those are
+ * never negative, a block whose sum is within the tolerance cannot contain a non background pixel. The left, right and
+ * top edges and the lowest non background row are therefore exact: they are searched at full resolution, starting
+ * from the outermost blocks that might contain one. The cut of the bottom sweep is searched upwards at full resolution
+ * as well, from the lowest row where it can occur. The same detection on the average block colors tells where the
+ * lowest cut is likely, so the search first covers the rows down to {@code maxError} rows above that. Only when the
+ * cut is not in that band, the search continues up to the top edge, so the bottom edge is exact as well.
+ * Use {@link #difference(ImageEdges, ImageEdges)} to validate the results against an exact scan.
+ *
+ * @author Maarten Blokker
+ */
+class CoarseToFineEdgeFinder {
+
+    private final int blockSize;
+    private final int maxError;
+
+    /**
+     * @param maxError the amount of rows above the cut found on the proxy in which the cut of the bottom sweep is
+     * searched for first, this is also used as the block size of the proxy
+     */
+    CoarseToFineEdgeFinder(int maxError) {
+        this.maxError = maxError;
+        this.blockSize = Math.max(2, maxError);
+    }
+
+    ImageEdges find(RasterReader reader, int tolerance) {
+        Proxy proxy = new Proxy(reader, blockSize);
+        int width = reader.getWidth();
+        int height = reader.getHeight();
+
+        ImageEdges edges = new ImageEdges();
+        if (!proxy.hasContent(tolerance)) {
+            edges.setLeftCoordinate(0);
+            edges.setTopCoordinate(0);
+            edges.setRightCoordinate(width - 1);
+            edges.setBottomCoordinate(height - 1);
+            return edges;
+        }
+
+        int[] distances = new int[width];
+        int left = refineLeft(reader, proxy, tolerance, distances);
+        int right = refineRight(reader, proxy, tolerance, distances);
+        int top = refineTop(reader, proxy, tolerance, left, right, distances);
+        int lowest = refineLowest(reader, proxy, tolerance, top, left, right, distances);
+
+        // a cut needs a pixel more than three times the tolerance away from white in one of the two rows above it,
+        // so the lowest cut is searched upwards from the lowest row where that is possible
+        int bottom = lowest;
+        int start = proxy.findLowestCutRow(tolerance);
+        if (start != EdgeProjection.NONE) {
+            int cutRow = proxy.findCut(tolerance);
+            int end = cutRow == EdgeProjection.NONE ? top : Math.max(top, (cutRow - 2) * blockSize - maxError);
+            int cut = refineCut(reader, tolerance, end, start, left, right);
+            if (cut == EdgeProjection.NONE && end > top) {
+                // the proxy found a cut that is not in the band, the lowest cut can be anywhere above it
+                cut = refineCut(reader, tolerance, top, end - 1, left, right);
+            }
+            if (cut != EdgeProjection.NONE) {
+                bottom = cut - 1;
+            }
+        }
+
+        edges.setLeftCoordinate(left);
+        edges.setTopCoordinate(top);
+        edges.setRightCoordinate(right);
+        edges.setBottomCoordinate(bottom);
+        return edges;
+    }
+
+    /**
+     * @return the largest difference between the coordinates of two sets of edges
+     */
+    static int difference(ImageEdges edges, ImageEdges other) {
+        return Math.max(
+                Math.max(Math.abs(edges.getLeftCoordinate() - other.getLeftCoordinate()),
+                        Math.abs(edges.getRightCoordinate() - other.getRightCoordinate())),
+                Math.max(Math.abs(edges.getTopCoordinate() - other.getTopCoordinate()),
+                        Math.abs(edges.getBottomCoordinate() - other.getBottomCoordinate())));
+    }
+
+    private int refineLeft(RasterReader reader, Proxy proxy, int tolerance, int[] distances) {
+        for (int bx = 0; bx < proxy.columns; bx++) {
+            int x = bx * blockSize;
+            int length = Math.min(blockSize, reader.getWidth() - x);
+            int left = EdgeProjection.NONE;
+
+            for (int by = 0; by < proxy.rows; by++) {
+                if (!proxy.isOccupied(bx, by, tolerance)) {
+                    continue;
+                }
+                for (int y = by * blockSize; y < Math.min(reader.getHeight(), (by + 1) * blockSize); y++) {
+                    EdgeProjection.readDistances(reader, x, y, length, distances);
+                    int limit = left == EdgeProjection.NONE ? length : left - x;
+                    for (int i = 0; i < limit; i++) {
+                        if (distances[i] > tolerance) {
+                            left = x + i;
+                            break;
+                        }
+                    }
+                }
+            }
+            if (left != EdgeProjection.NONE) {
+                return left;
+            }
+        }
+        return 0;
+    }
+
+    private int refineRight(RasterReader reader, Proxy proxy, int tolerance, int[] distances) {
+        for (int bx = proxy.columns - 1; bx >= 0; bx--) {
+            int x = bx * blockSize;
+            int length = Math.min(blockSize, reader.getWidth() - x);
+            int right = EdgeProjection.NONE;
+
+            for (int by = 0; by < proxy.rows; by++) {
+                if (!proxy.isOccupied(bx, by, tolerance)) {
+                    continue;
+                }
+                for (int y = by * blockSize; y < Math.min(reader.getHeight(), (by + 1) * blockSize); y++) {
+                    EdgeProjection.readDistances(reader, x, y, length, distances);
+                    int limit = right == EdgeProjection.NONE ? 0 : right - x + 1;
+                    for (int i = length - 1; i >= limit; i--) {
+                        if (distances[i] > tolerance) {
+                            right = x + i;
+                            break;
+                        }
+                    }
+                }
+            }
+            if (right != EdgeProjection.NONE) {
+                return right;
+            }
+        }
+        return reader.getWidth() - 1;
+    }
+
+    private int refineTop(RasterReader reader, Proxy proxy, int tolerance, int left, int right, int[] distances) {
+        for (int by = 0; by < proxy.rows; by++) {
+            if (!proxy.isRowOccupied(by, tolerance)) {
+                continue;
+            }
+            for (int y = by * blockSize; y < Math.min(reader.getHeight(), (by + 1) * blockSize); y++) {
+                if (hasContent(reader, y, left, right, tolerance, distances)) {
+                    return y;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the lowest non background row above the last row of the image, or the last row when there is none
+     */
+    private int refineLowest(RasterReader reader, Proxy proxy, int tolerance, int top, int left, int right,
+            int[] distances) {
+        int height = reader.getHeight();
+        for (int by = proxy.rows - 1; by >= 0; by--) {
+            if (!proxy.isRowOccupied(by, tolerance)) {
+                continue;
+            }
+            for (int y = Math.min(height - 2, (by + 1) * blockSize - 1); y >= Math.max(top, by * blockSize); y--) {
+                if (hasContent(reader, y, left, right, tolerance, distances)) {
+                    return y;
+                }
+            }
+        }
+        return height - 1;
+    }
+
+    private boolean hasContent(RasterReader reader, int y, int left, int right, int tolerance, int[] distances) {
+        int length = right - left + 1;
+        EdgeProjection.readDistances(reader, left, y, length, distances);
+        for (int i = 0; i < length; i++) {
+            if (distances[i] > tolerance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the lowest row within {@code [from, to]} at which the bottom sweep cuts the image, or none
+     */
+    private int refineCut(RasterReader reader, int tolerance, int from, int to, int left, int right) {
+        int length = right - left + 1;
+        int[] below = EdgeProjection.readDistances(reader, left, to + 1, length, new int[length]);
+        int[] current = EdgeProjection.readDistances(reader, left, to, length, new int[length]);
+        int[] above = EdgeProjection.readDistances(reader, left, to - 1, length, new int[length]);
+        int[] above2 = EdgeProjection.readDistances(reader, left, to - 2, length, new int[length]);
+
+        for (int y = to; y >= from; y--) {
+            if (DistanceKernel.get().isCut(above2, above, current, below, 0, length, tolerance)) {
+                return y;
+            }
+
+            int[] recycled = below;
+            below = current;
+            current = above;
+            above = above2;
+            above2 = EdgeProjection.readDistances(reader, left, y - 3, length, recycled);
+        }
+        return EdgeProjection.NONE;
+    }
+
+    /**
+     * Per block sums of the distance to white of every color channel.
+     */
+    private static final class Proxy {
+
+        private final int columns;
+        private final int rows;
+        private final int blockSize;
+        private final int width;
+        private final int height;
+        private final int[] red;
+        private final int[] green;
+        private final int[] blue;
+
+        Proxy(RasterReader reader, int blockSize) {
+            this.blockSize = blockSize;
+            this.width = reader.getWidth();
+            this.height = reader.getHeight();
+            this.columns = (width + blockSize - 1) / blockSize;
+            this.rows = (height + blockSize - 1) / blockSize;
+            this.red = new int[columns * rows];
+            this.green = new int[columns * rows];
+            this.blue = new int[columns * rows];
+
+            int[] rgb = new int[width];
+            for (int y = 0; y < height; y++) {
+                reader.readRow(0, y, width, rgb);
+                int index = (y / blockSize) * columns;
+                for (int x = 0; x < width; index++) {
+                    int end = Math.min(width, x + blockSize);
+                    int r = 0;
+                    int g = 0;
+                    int b = 0;
+                    for (; x < end; x++) {
+                        int pixel = rgb[x];
+                        r += 255 - ((pixel >> 16) & 0xFF);
+                        g += 255 - ((pixel >> 8) & 0xFF);
+                        b += 255 - (pixel & 0xFF);
+                    }
+                    red[index] += r;
+                    green[index] += g;
+                    blue[index] += b;
+                }
+            }
+        }
+
+        boolean isOccupied(int bx, int by, int tolerance) {
+            int index = by * columns + bx;
+            long r = red[index];
+            long g = green[index];
+            long b = blue[index];
+            return r * r + g * g + b * b > tolerance;
+        }
+
+        boolean isRowOccupied(int by, int tolerance) {
+            for (int bx = 0; bx < columns; bx++) {
+                if (isOccupied(bx, by, tolerance)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean hasContent(int tolerance) {
+            for (int by = 0; by < rows; by++) {
+                if (isRowOccupied(by, tolerance)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the lowest row at which the bottom sweep could cut the image, or none
+         */
+        int findLowestCutRow(int tolerance) {
+            for (int by = rows - 1; by >= 0; by--) {
+                if (isRowOccupied(by, tolerance * 3)) {
+                    return Math.min(height - 1, (by + 1) * blockSize + 1);
+                }
+            }
+            return EdgeProjection.NONE;
+        }
+
+        /**
+         * The distance to white of the average color of a block, or 0 outside of the proxy.
+         */
+        int distance(int bx, int by) {
+            if (by < 0 || by >= rows) {
+                return 0;
+            }
+            int index = by * columns + bx;
+            int pixels = (Math.min(width, (bx + 1) * blockSize) - bx * blockSize)
+                    * (Math.min(height, (by + 1) * blockSize) - by * blockSize);
+            int r = red[index] / pixels;
+            int g = green[index] / pixels;
+            int b = blue[index] / pixels;
+            return r * r + g * g + b * b;
+        }
+
+        /**
+         * Runs the cut detection of the bottom sweep on the average block colors.
+         *
+         * @return the lowest block row with a cut below the first row with content, or none
+         */
+        int findCut(int tolerance) {
+            int top = 0;
+            while (top < rows && !isRowOccupied(top, tolerance)) {
+                top++;
+            }
+
+            int[] above2 = new int[columns];
+            int[] above = new int[columns];
+            int[] current = new int[columns];
+            int[] below = new int[columns];
+            for (int by = rows - 1; by >= top; by--) {
+                for (int bx = 0; bx < columns; bx++) {
+                    above2[bx] = distance(bx, by - 2);
+                    above[bx] = distance(bx, by - 1);
+                    current[bx] = distance(bx, by);
+                    below[bx] = distance(bx, by + 1);
+                }
+                if (DistanceKernel.get().isCut(above2, above, current, below, 0, columns, tolerance)) {
+                    return by;
+                }
+            }
+            return EdgeProjection.NONE;
+        }
+    }
+}
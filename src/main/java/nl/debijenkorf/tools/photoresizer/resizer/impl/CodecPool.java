@@ -0,0 +1,169 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reuses image readers and writers across files, so their native state is allocated once per thread instead of once
+ * per file, and freed deterministically instead of by finalizers.
+ *
+ * Codecs are kept per service provider, with at most a fixed amount of idle codecs per provider. A returned codec is
+ * reset, or disposed when there are already enough idle ones. Closing the pool disposes all idle codecs, codecs that
+ * are still borrowed are disposed when they are returned.
+ *
+ * The TIFF and PNG readers keep the last image they decoded, even after they are reset, so they are never kept idle.
+ * An idle reader would hold on to a whole raster.
+ *
+ * @author Maarten Blokker
+ */
+final class CodecPool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodecPool.class);
+
+    /**
+     * Formats of readers that are disposed when they are returned.
+     */
+    private static final Set<String> UNPOOLED_FORMATS = new HashSet<>(Arrays.asList("png", "tif", "tiff"));
+
+    private final int maxIdle;
+    private final ConcurrentMap<ImageReaderSpi, BlockingQueue<ImageReader>> readers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ImageWriterSpi, BlockingQueue<ImageWriter>> writers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ImageWriterSpi> writerProviders = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * @param maxIdle maximum amount of idle codecs that are kept per provider
+     */
+    CodecPool(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @param stream the encoded image, positioned at its start
+     * @return a reader that can decode the stream, without input
+     * @throws IOException when no reader supports the format of the image
+     */
+    ImageReader borrowReader(ImageInputStream stream) throws IOException {
+        ImageReaderSpi provider = findReaderProvider(stream);
+        ImageReader reader = idle(readers, provider).poll();
+        return reader != null ? reader : provider.createReaderInstance();
+    }
+
+    void returnReader(ImageReader reader) {
+        ImageReaderSpi provider = reader.getOriginatingProvider();
+        if (provider != null && isPooled(provider)) {
+            reader.reset();
+            release(readers, provider, reader, ImageReader::dispose);
+        } else {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * @param formatName informal name of the format, like {@code jpeg}
+     * @return a writer for the format, without output
+     * @throws IOException when no writer supports the format
+     */
+    ImageWriter borrowWriter(String formatName) throws IOException {
+        ImageWriterSpi provider = writerProviders.get(formatName);
+        if (provider == null) {
+            provider = findWriterProvider(formatName);
+            writerProviders.putIfAbsent(formatName, provider);
+        }
+        ImageWriter writer = idle(writers, provider).poll();
+        return writer != null ? writer : provider.createWriterInstance();
+    }
+
+    void returnWriter(ImageWriter writer) {
+        writer.reset();
+        release(writers, writer.getOriginatingProvider(), writer, ImageWriter::dispose);
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            LOG.debug("Disposing idle image readers and writers");
+        }
+        closed = true;
+        disposeIdle(readers, ImageReader::dispose);
+        disposeIdle(writers, ImageWriter::dispose);
+    }
+
+    private <P, C> BlockingQueue<C> idle(ConcurrentMap<P, BlockingQueue<C>> pool, P provider) {
+        return pool.computeIfAbsent(provider, (key) -> new ArrayBlockingQueue<>(maxIdle));
+    }
+
+    private <P, C> void release(ConcurrentMap<P, BlockingQueue<C>> pool, P provider, C codec, Consumer<C> dispose) {
+        if (closed || provider == null || !idle(pool, provider).offer(codec)) {
+            dispose.accept(codec);
+        } else if (closed) {
+            // closed while the codec was returned
+            disposeIdle(pool, dispose);
+        }
+    }
+
+    private static <P, C> void disposeIdle(ConcurrentMap<P, BlockingQueue<C>> pool, Consumer<C> dispose) {
+        for (BlockingQueue<C> idle : pool.values()) {
+            C codec;
+            while ((codec = idle.poll()) != null) {
+                dispose.accept(codec);
+            }
+        }
+    }
+
+    private static boolean isPooled(ImageReaderSpi provider) {
+        for (String format : provider.getFormatNames()) {
+            if (UNPOOLED_FORMATS.contains(format.toLowerCase(Locale.ROOT))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ImageReaderSpi findReaderProvider(ImageInputStream stream) throws IOException {
+        Iterator<ImageReaderSpi> providers = IIORegistry.getDefaultInstance()
+                .getServiceProviders(ImageReaderSpi.class, true);
+        while (providers.hasNext()) {
+            ImageReaderSpi provider = providers.next();
+            stream.mark();
+            try {
+                if (provider.canDecodeInput(stream)) {
+                    return provider;
+                }
+            } catch (IOException ex) {
+                // like ImageIO, a provider that fails to read the header can not decode the image
+                LOG.trace("Image reader {} failed to read the header", provider, ex);
+            } finally {
+                stream.reset();
+            }
+        }
+        throw new IOException("Image format is not supported");
+    }
+
+    private static ImageWriterSpi findWriterProvider(String formatName) throws IOException {
+        Iterator<ImageWriterSpi> providers = IIORegistry.getDefaultInstance().getServiceProviders(ImageWriterSpi.class,
+                (provider) -> Arrays.asList(((ImageWriterSpi) provider).getFormatNames()).contains(formatName), true);
+        if (!providers.hasNext()) {
+            throw new IOException("No image writer for format: " + formatName);
+        }
+        return providers.next();
+    }
+}
@@ -0,0 +1,136 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+
+/**
+ * Converts a decoded image once into a layout that is read straight from its data buffer, so no pixel has to be
+ * converted through the color model while the image is aligned and rendered.
+ *
+ * Images the {@link RasterReader} already reads directly, like TYPE_3BYTE_BGR, packed int and 8 bit gray or indexed
+ * images, are kept as they are, copying them would cost more than reading them. Gray images stay single band, 16 bit
+ * gray is reduced to TYPE_BYTE_GRAY, so gray sources are rendered without being expanded to RGB, only the canvas is
+ * expanded when it is written. Any other image becomes TYPE_INT_RGB, or TYPE_INT_ARGB when it has alpha:
+ * <ul>
+ * <li>16 bit and translucent sRGB or gray images, by scaling the samples of every row through a lookup table</li>
+ * <li>CMYK and images in other color spaces with an ICC profile, with a single {@link ColorConvertOp}</li>
+ * <li>anything else, like indexed images with transparency or less than 8 bits and color spaces without a profile,
+ * through {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}</li>
+ * </ul>
+ * Gray samples are taken as sRGB gray levels, see {@link RasterReader}.
+ *
+ * @author Maarten Blokker
+ */
+final class ColorNormalizer {
+
+    private ColorNormalizer() {
+    }
+
+    /**
+     * @param image a decoded image
+     * @return the image itself when it can be read directly, otherwise a converted copy
+     */
+    static BufferedImage normalize(BufferedImage image) {
+        boolean opaque = image.getTransparency() == Transparency.OPAQUE;
+        if (opaque ? RasterReader.isDirect(image) : image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            return image;
+        }
+
+        ColorModel cm = image.getColorModel();
+        if (cm instanceof ComponentColorModel && isScalable(cm)) {
+            return scale(image);
+        }
+        if (cm instanceof ComponentColorModel && cm.getColorSpace() instanceof ICC_ColorSpace) {
+            // a single transform of the whole raster, more than twice as fast as getRGB for ICC profiles
+            return convert(image);
+        }
+        return unpack(image);
+    }
+
+    /**
+     * @return true for non premultiplied sRGB or gray components of at most 16 bits, all of the same size
+     */
+    private static boolean isScalable(ColorModel cm) {
+        int type = cm.getColorSpace().getType();
+        if (cm.isAlphaPremultiplied() || !(cm.getColorSpace().isCS_sRGB() || type == ColorSpace.TYPE_GRAY)
+                || (cm.getTransferType() != DataBuffer.TYPE_BYTE && cm.getTransferType() != DataBuffer.TYPE_USHORT)) {
+            return false;
+        }
+        for (int size : cm.getComponentSize()) {
+            if (size != cm.getComponentSize(0) || size > 16) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static BufferedImage scale(BufferedImage image) {
+        ColorModel cm = image.getColorModel();
+        Raster raster = image.getRaster();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int components = cm.getNumComponents();
+        boolean gray = cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+        boolean alpha = cm.hasAlpha();
+
+        int max = (1 << cm.getComponentSize(0)) - 1;
+        int[] levels = new int[max + 1];
+        for (int sample = 0; sample <= max; sample++) {
+            levels[sample] = (sample * 255 + max / 2) / max;
+        }
+
+        int[] samples = new int[width * components];
+        if (gray && !alpha) {
+            BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            byte[] data = ((DataBufferByte) result.getRaster().getDataBuffer()).getData();
+            for (int y = 0, index = 0; y < height; y++) {
+                raster.getPixels(0, y, width, 1, samples);
+                for (int x = 0; x < width; x++) {
+                    data[index++] = (byte) levels[samples[x]];
+                }
+            }
+            return result;
+        }
+
+        BufferedImage result = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int[] data = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        int colors = gray ? 1 : 3;
+        for (int y = 0, index = 0; y < height; y++) {
+            raster.getPixels(0, y, width, 1, samples);
+            for (int i = 0; i < samples.length; i += components) {
+                int red = levels[samples[i]];
+                int green = gray ? red : levels[samples[i + 1]];
+                int blue = gray ? red : levels[samples[i + 2]];
+                int a = alpha ? levels[samples[i + colors]] : 0xFF;
+                data[index++] = a << 24 | red << 16 | green << 8 | blue;
+            }
+        }
+        return result;
+    }
+
+    private static BufferedImage convert(BufferedImage image) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(),
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        return new ColorConvertOp(null).filter(image, result);
+    }
+
+    private static BufferedImage unpack(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage result = new BufferedImage(width, height, image.getTransparency() == Transparency.OPAQUE
+                ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        int[] data = ((DataBufferInt) result.getRaster().getDataBuffer()).getData();
+        image.getRGB(0, 0, width, height, data, 0, width);
+        return result;
+    }
+}
@@ -0,0 +1,84 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The per pixel arithmetic of the edge detection, applied to whole rows at once.
+ *
+ * Besides the {@link ScalarDistanceKernel} there is an implementation on top of the incubating Java Vector API, which
+ * is only built with the {@code vector} profile and only usable when the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}. {@link #get()} uses it when it is available, unless the system property
+ * {@code edges.kernel} is set to {@code scalar}.
+ *
+ * @author Maarten Blokker
+ */
+interface DistanceKernel {
+
+    /**
+     * Converts packed RGB values to their squared distance to white.
+     *
+     * @param rgb packed RGB values
+     * @param distances destination, may be the same array as {@code rgb}
+     * @param length amount of values to convert
+     */
+    void distances(int[] rgb, int[] distances, int length);
+
+    /**
+     * @return the first index in {@code [0, length)} with a distance above the threshold, or -1
+     */
+    int firstAbove(int[] distances, int length, int threshold);
+
+    /**
+     * @return the last index in {@code [0, length)} with a distance above the threshold, or -1
+     */
+    int lastAbove(int[] distances, int length, int threshold);
+
+    /**
+     * Tests whether the bottom sweep cuts the image at the row {@code current}, looking at the columns
+     * {@code [from, to)} of the distance rows around it.
+     */
+    boolean isCut(int[] above2, int[] above, int[] current, int[] below, int from, int to, int tolerance);
+
+    /**
+     * @return the kernel to use for edge detection
+     */
+    static DistanceKernel get() {
+        return Holder.KERNEL;
+    }
+
+    static DistanceKernel scalar() {
+        return ScalarDistanceKernel.INSTANCE;
+    }
+
+    /**
+     * @return the Vector API kernel, if it is built and the incubator module is available
+     */
+    static Optional<DistanceKernel> vector() {
+        try {
+            Class<?> type = Class.forName(DistanceKernel.class.getPackage().getName() + ".VectorDistanceKernel");
+            return Optional.of((DistanceKernel) type.getConstructor().newInstance());
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return Optional.empty();
+        }
+    }
+
+    static final class Holder {
+
+        private static final Logger LOG = LoggerFactory.getLogger(DistanceKernel.class);
+
+        private static final DistanceKernel KERNEL = select();
+
+        private Holder() {
+        }
+
+        private static DistanceKernel select() {
+            DistanceKernel kernel = "scalar".equals(System.getProperty("edges.kernel"))
+                    ? scalar()
+                    : vector().orElseGet(DistanceKernel::scalar);
+            LOG.debug("Using {} for edge detection", kernel.getClass().getSimpleName());
+            return kernel;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import nl.debijenkorf.tools.photoresizer.Configuration;
+
+/**
+ * Projections of the non background pixels of an image, built in a single row major pass over the raster.
+ *
+ * For every row the first and last non background column are kept, together with a flag that tells whether the
+ * bottom sweep of {@link SmartImageAligner} would cut the image at that row (a sharp drop in color towards the rows
+ * below it, typically the transition from the product to its reflection or shadow). The column projection is the
+ * union of the row extents, so the left and right edge are the minimum and maximum of those. All edges are then
+ * derived from these arrays in time proportional to the height of the image.
+ *
+ * Images larger than {@link Configuration#getParallelEdgeThreshold()} pixels are scanned in horizontal stripes on the
+ * common {@link ForkJoinPool}. Every stripe writes its own rows of the arrays, the edges are the minimum (left, top)
+ * and maximum (right, bottom) over all of them.
+ *
+ * @author Maarten Blokker
+ */
+class EdgeProjection {
+
+    static final int NONE = -1;
+
+    private static final int MIN_STRIPE_HEIGHT = 64;
+
+    private final int width;
+    private final int height;
+    private final int tolerance;
+    private final int[] rowFirst;
+    private final int[] rowLast;
+    private final boolean[] rowCut;
+    private final DistanceKernel kernel = DistanceKernel.get();
+
+    EdgeProjection(int width, int height, int tolerance) {
+        this.width = width;
+        this.height = height;
+        this.tolerance = tolerance;
+        this.rowFirst = new int[height];
+        this.rowLast = new int[height];
+        this.rowCut = new boolean[height];
+    }
+
+    /**
+     * Builds the projection of the full image.
+     *
+     * @param reader reader of the image
+     * @param tolerance color distance to white above which a pixel is not background
+     * @return the projection
+     */
+    static EdgeProjection scan(RasterReader reader, int tolerance) {
+        EdgeProjection projection = new EdgeProjection(reader.getWidth(), reader.getHeight(), tolerance);
+        long pixels = (long) reader.getWidth() * reader.getHeight();
+        if (pixels >= Configuration.getParallelEdgeThreshold()) {
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            int stripeHeight = Math.max(MIN_STRIPE_HEIGHT, reader.getHeight() / (pool.getParallelism() * 4));
+            pool.invoke(new StripeTask(projection, reader, 0, reader.getHeight(), stripeHeight));
+        } else {
+            projection.scan(reader, 0, reader.getHeight());
+        }
+        return projection;
+    }
+
+    /**
+     * Scans the rows {@code [from, to)}. The two rows above and the row below the range are read as well, as the cut
+     * detection of a row looks at its neighbours. Ranges can therefore be scanned independently of each other.
+     *
+     * @param reader reader of the image
+     * @param from first row to scan
+     * @param to row after the last row to scan
+     */
+    void scan(RasterReader reader, int from, int to) {
+        int[] above2 = readDistances(reader, from - 2, new int[width]);
+        int[] above = readDistances(reader, from - 1, new int[width]);
+        int[] current = readDistances(reader, from, new int[width]);
+        int[] below = new int[width];
+
+        for (int y = from; y < to; y++) {
+            readDistances(reader, y + 1, below);
+            project(y, current);
+            rowCut[y] = kernel.isCut(above2, above, current, below, 0, width, tolerance);
+
+            int[] recycled = above2;
+            above2 = above;
+            above = current;
+            current = below;
+            below = recycled;
+        }
+    }
+
+    private void project(int y, int[] distances) {
+        int first = kernel.firstAbove(distances, width, tolerance);
+        rowFirst[y] = first;
+        rowLast[y] = first == NONE ? NONE : kernel.lastAbove(distances, width, tolerance);
+    }
+
+    /**
+     * Reads the distance to white of every pixel in row {@code y}, a row outside of the image is white.
+     */
+    static int[] readDistances(RasterReader reader, int y, int[] distances) {
+        return readDistances(reader, 0, y, reader.getWidth(), distances);
+    }
+
+    /**
+     * Reads the distance to white of {@code length} pixels of row {@code y} from column {@code x}, a row outside of
+     * the image is white.
+     */
+    static int[] readDistances(RasterReader reader, int x, int y, int length, int[] distances) {
+        if (y < 0 || y >= reader.getHeight()) {
+            Arrays.fill(distances, 0, length, 0);
+            return distances;
+        }
+
+        reader.readRow(x, y, length, distances);
+        DistanceKernel.get().distances(distances, distances, length);
+        return distances;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param y row
+     * @return first non background column of the row, or {@link #NONE}
+     */
+    int getRowFirst(int y) {
+        return rowFirst[y];
+    }
+
+    /**
+     * @param y row
+     * @return last non background column of the row, or {@link #NONE}
+     */
+    int getRowLast(int y) {
+        return rowLast[y];
+    }
+
+    /**
+     * @return the left most non background column, or 0 when the image is blank
+     */
+    int getLeft() {
+        int left = NONE;
+        for (int y = 0; y < height; y++) {
+            if (rowFirst[y] != NONE && (left == NONE || rowFirst[y] < left)) {
+                left = rowFirst[y];
+            }
+        }
+        return left == NONE ? 0 : left;
+    }
+
+    /**
+     * @return the right most non background column, or the last column when the image is blank
+     */
+    int getRight() {
+        int right = NONE;
+        for (int y = 0; y < height; y++) {
+            right = Math.max(right, rowLast[y]);
+        }
+        return right == NONE ? width - 1 : right;
+    }
+
+    /**
+     * @return the top most non background row, or 0 when the image is blank
+     */
+    int getTop() {
+        for (int y = 0; y < height; y++) {
+            if (rowFirst[y] != NONE) {
+                return y;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The row above the lowest cut below the top edge. Without a cut this is the lowest non background row above the
+     * last row of the image, or the last row when there is none.
+     *
+     * @return the bottom most row of the image content
+     */
+    int getBottom() {
+        int top = getTop();
+        for (int y = height - 1; y >= top; y--) {
+            if (rowCut[y]) {
+                return y - 1;
+            }
+        }
+
+        for (int y = height - 2; y >= top; y--) {
+            if (rowFirst[y] != NONE) {
+                return y;
+            }
+        }
+        return height - 1;
+    }
+
+    /**
+     * Scans a range of rows, splitting it in halves until the stripes are small enough.
+     */
+    private static final class StripeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final EdgeProjection projection;
+        private final RasterReader reader;
+        private final int from;
+        private final int to;
+        private final int stripeHeight;
+
+        StripeTask(EdgeProjection projection, RasterReader reader, int from, int to, int stripeHeight) {
+            this.projection = projection;
+            this.reader = reader;
+            this.from = from;
+            this.to = to;
+            this.stripeHeight = stripeHeight;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= stripeHeight) {
+                projection.scan(reader, from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new StripeTask(projection, reader, from, middle, stripeHeight),
+                        new StripeTask(projection, reader, middle, to, stripeHeight));
+            }
+        }
+    }
+}
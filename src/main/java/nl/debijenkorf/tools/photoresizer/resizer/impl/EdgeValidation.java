@@ -0,0 +1,91 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import nl.debijenkorf.tools.photoresizer.ResizerWorker;
+import nl.debijenkorf.tools.photoresizer.resizer.impl.SmartImageAligner.ImageEdges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the coarse to fine edge detection against the exact scan for every image in a directory.
+ *
+ * Usage: {@code EdgeValidation <directory> [maxError]}
+ *
+ * @author Maarten Blokker
+ */
+public class EdgeValidation {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EdgeValidation.class);
+
+    private static final int TOLERANCE = 300;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: EdgeValidation <directory> [maxError]");
+            System.exit(1);
+        }
+
+        Path directory = Paths.get(args[0]);
+        int maxError = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(ResizerWorker.IMAGE_FILE_PATTERN);
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            files = stream.filter(matcher::matches).collect(Collectors.toList());
+        }
+
+        CoarseToFineEdgeFinder finder = new CoarseToFineEdgeFinder(maxError);
+        int validated = 0;
+        int exceeded = 0;
+        int largestDifference = 0;
+        long exactNanos = 0;
+        long coarseNanos = 0;
+
+        for (Path file : files) {
+            BufferedImage image = ImageIO.read(file.toFile());
+            if (image == null) {
+                LOG.warn("Skipping unsupported image: {}", file);
+                continue;
+            }
+            RasterReader reader = RasterReader.of(image);
+
+            long start = System.nanoTime();
+            EdgeProjection projection = EdgeProjection.scan(reader, TOLERANCE);
+            exactNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ImageEdges edges = finder.find(reader, TOLERANCE);
+            coarseNanos += System.nanoTime() - start;
+
+            ImageEdges exactEdges = new ImageEdges();
+            exactEdges.setLeftCoordinate(projection.getLeft());
+            exactEdges.setTopCoordinate(projection.getTop());
+            exactEdges.setRightCoordinate(projection.getRight());
+            exactEdges.setBottomCoordinate(projection.getBottom());
+
+            int difference = CoarseToFineEdgeFinder.difference(edges, exactEdges);
+            largestDifference = Math.max(largestDifference, difference);
+            validated++;
+            if (difference > maxError) {
+                exceeded++;
+                LOG.warn("{}: edges differ {}px, edges={}, exact={}", file, difference, edges, exactEdges);
+            }
+        }
+
+        LOG.info("Validated {} images with maxError={}: {} exceeded the max error, largest difference={}px",
+                validated, maxError, exceeded, largestDifference);
+        LOG.info("Exact scan took {}ms, coarse to fine took {}ms",
+                TimeUnit.NANOSECONDS.toMillis(exactNanos), TimeUnit.NANOSECONDS.toMillis(coarseNanos));
+    }
+}
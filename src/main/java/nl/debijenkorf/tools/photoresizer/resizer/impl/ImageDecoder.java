@@ -0,0 +1,316 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.function.Function;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import nl.debijenkorf.tools.photoresizer.Configuration;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes source images at no more than the resolution the output needs.
+ *
+ * The size of the image is read from its header first. When the image is more than
+ * {@link Configuration#getDecodeOversampling()} times larger than the target in both dimensions, only every n-th pixel
+ * of every n-th row is decoded, with n as large as possible while keeping the decoded image at least that many times
+ * larger than the target.
+ *
+ * In two phase mode an image larger than the target is first decoded as a preview of about the target size, which is
+ * only used to plan the alignment. Then just the source region of that plan is decoded, with a subsampling based on
+ * the size of the padded region instead of the whole image. The margins are never decoded, they are filled by the
+ * renderer. Readers that support it, like the tiled TIFF reader, skip the data outside of the region entirely.
+ *
+ * When {@link #open opened}, huge TIFF sources that are stored in tiles or strips are always planned on a preview, and
+ * their source region is not decoded at all. Instead it is read strip by strip while it is rendered, see
+ * {@link StripReader}, so memory is bounded by the preview, the canvas and a strip, whatever the size of the source.
+ *
+ * Every decoded image is normalized into a layout that is read straight from its data buffer, see
+ * {@link ColorNormalizer}.
+ *
+ * @author Maarten Blokker
+ */
+class ImageDecoder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ImageDecoder.class);
+
+    /**
+     * Rows of a streamed strip in the estimate, a strip is rounded up to whole tiles.
+     */
+    private static final int STRIP_ROWS = 128;
+
+    private final CodecPool codecs;
+    private final int targetWidth;
+    private final int targetHeight;
+    private final int oversampling;
+    private final boolean twoPhase;
+
+    /**
+     * @param codecs pool the image readers are borrowed from
+     * @param targetWidth width of the output
+     * @param targetHeight height of the output
+     * @param oversampling minimum ratio between the decoded and the target size, 0 to always decode the full image
+     * @param twoPhase when true, the alignment is planned on a preview before the image is decoded
+     */
+    ImageDecoder(CodecPool codecs, int targetWidth, int targetHeight, int oversampling, boolean twoPhase) {
+        this.codecs = codecs;
+        this.targetWidth = targetWidth;
+        this.targetHeight = targetHeight;
+        this.oversampling = oversampling;
+        this.twoPhase = twoPhase;
+    }
+
+    /**
+     * @param stream the encoded image, which is left open
+     * @param planner plans the alignment of a decoded image
+     * @return the decoded image and the plan relative to it
+     * @throws IOException when the image can not be decoded
+     */
+    Decoded decode(ImageInputStream stream, Function<BufferedImage, AlignmentPlan> planner) throws IOException {
+        return decode(stream, planner, false);
+    }
+
+    /**
+     * Decodes like {@link #decode}, except for sources of at least {@link Configuration#getStreamingThreshold()} pixels
+     * that can be streamed. Those are decoded while their rows are read, and the reader stays borrowed until the
+     * result is closed.
+     *
+     * @param stream the encoded image, which must stay open until the result is closed
+     * @param planner plans the alignment of a decoded image
+     * @return the decoded image, or the streamed rows, and the plan relative to it
+     * @throws IOException when the image can not be decoded
+     */
+    Decoded open(ImageInputStream stream, Function<BufferedImage, AlignmentPlan> planner) throws IOException {
+        return decode(stream, planner, true);
+    }
+
+    private Decoded decode(ImageInputStream stream, Function<BufferedImage, AlignmentPlan> planner, boolean open)
+            throws IOException {
+        ImageReader reader = codecs.borrowReader(stream);
+        boolean release = true;
+        try {
+            reader.setInput(stream, !twoPhase && !open, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+
+            boolean streaming = open && (long) width * height >= Configuration.getStreamingThreshold()
+                    && isStreamable(reader, height) && getSubsampling(width, height, 1) > 1;
+            int previewSubsampling = twoPhase || streaming ? getSubsampling(width, height, 1) : 1;
+            if (previewSubsampling > 1) {
+                Decoded decoded = decodeRegion(reader, width, height, previewSubsampling, planner, streaming);
+                // a streamed image still needs the reader, it is returned when the result is closed
+                release = !streaming;
+                return decoded;
+            }
+
+            BufferedImage image = read(reader, null, getSubsampling(width, height, oversampling));
+            return new Decoded(image, planner.apply(image));
+        } finally {
+            if (release) {
+                codecs.returnReader(reader);
+            }
+        }
+    }
+
+    /**
+     * Estimates the heap that decoding the image takes, from its header: the decoded image at the subsampling it is
+     * decoded with, the copy it is normalized into when it is not read directly, and the preview in two phase mode.
+     * Streamed images only hold the preview and a strip.
+     *
+     * @param stream the encoded image, which is left open
+     * @param open true when the image will be {@link #open opened}, false when it will be {@link #decode decoded}
+     * @return the estimated amount of bytes
+     * @throws IOException when the header can not be read
+     */
+    long estimate(ImageInputStream stream, boolean open) throws IOException {
+        ImageReader reader = codecs.borrowReader(stream);
+        try {
+            reader.setInput(stream, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            ImageTypeSpecifier type = reader.getRawImageType(0);
+            if (type == null) {
+                type = reader.getImageTypes(0).next();
+            }
+
+            BufferedImage sample = type.createBufferedImage(1, 1);
+            BufferedImage normalized = ColorNormalizer.normalize(sample);
+            int bytesPerPixel = (type.getColorModel().getPixelSize() + 7) / 8;
+            if (normalized != sample) {
+                bytesPerPixel += normalized.getType() == BufferedImage.TYPE_BYTE_GRAY ? 1 : 4;
+            }
+
+            int subsampling = getSubsampling(width, height, oversampling);
+            int previewSubsampling = getSubsampling(width, height, 1);
+            boolean streaming = open && (long) width * height >= Configuration.getStreamingThreshold()
+                    && isStreamable(reader, height) && previewSubsampling > 1;
+            long preview = twoPhase || streaming ? pixels(width, height, previewSubsampling) : 0;
+            long pixels = streaming
+                    ? (long) (width + subsampling - 1) / subsampling * STRIP_ROWS
+                    : pixels(width, height, subsampling);
+            return (preview + pixels) * bytesPerPixel;
+        } finally {
+            codecs.returnReader(reader);
+        }
+    }
+
+    private static long pixels(int width, int height, int subsampling) {
+        return (long) ((width + subsampling - 1) / subsampling) * ((height + subsampling - 1) / subsampling);
+    }
+
+    /**
+     * @return true when the reader decodes any strip of rows without decoding the rows above it, which is the case for
+     * TIFF stored in tiles or in more than one strip
+     */
+    private static boolean isStreamable(ImageReader reader, int height) throws IOException {
+        String format = reader.getFormatName().toLowerCase(Locale.ROOT);
+        return (format.equals("tif") || format.equals("tiff")) && reader.getTileHeight(0) < height;
+    }
+
+    private Decoded decodeRegion(ImageReader reader, int width, int height, int previewSubsampling,
+            Function<BufferedImage, AlignmentPlan> planner, boolean streaming) throws IOException {
+        AlignmentPlan preview = planner.apply(read(reader, null, previewSubsampling));
+
+        // the plan in full resolution coordinates
+        int x = preview.getSourceX() * previewSubsampling;
+        int y = preview.getSourceY() * previewSubsampling;
+        Rectangle region = new Rectangle(x, y,
+                Math.min(width - x, preview.getSourceWidth() * previewSubsampling),
+                Math.min(height - y, preview.getSourceHeight() * previewSubsampling));
+        int paddedWidth = region.width + (preview.getLeftPadding() + preview.getRightPadding()) * previewSubsampling;
+        int paddedHeight = region.height + (preview.getTopPadding() + preview.getBottomPadding()) * previewSubsampling;
+
+        int subsampling = getSubsampling(paddedWidth, paddedHeight, oversampling);
+        BufferedImage image = null;
+        RowSource source;
+        if (streaming) {
+            LOG.debug("Streaming {} with subsampling {}", region, subsampling);
+            source = new StripReader(reader, region, subsampling);
+        } else {
+            image = read(reader, region, subsampling);
+            source = RowSource.of(image);
+        }
+
+        int left = Math.round((float) preview.getLeftPadding() * previewSubsampling / subsampling);
+        int top = Math.round((float) preview.getTopPadding() * previewSubsampling / subsampling);
+        int right = Math.max(0, Math.round((float) paddedWidth / subsampling) - left - source.getWidth());
+        int bottom = Math.max(0, Math.round((float) paddedHeight / subsampling) - top - source.getHeight());
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+
+        // the aligner plans the aspect ratio of the target, which the rounding of the preview is not precise enough for
+        long deviation = (long) preview.getPaddedWidth() * targetHeight
+                - (long) preview.getPaddedHeight() * targetWidth;
+        if (Math.abs(deviation) <= targetWidth + targetHeight) {
+            if (targetHeight > targetWidth) {
+                int delta = Math.round((float) (top + sourceHeight + bottom) * targetWidth / targetHeight)
+                        - (left + sourceWidth + right);
+                right += delta;
+                if (right < 0) {
+                    sourceWidth = Math.max(1, sourceWidth + right);
+                    right = 0;
+                }
+            } else {
+                int delta = Math.round((float) (left + sourceWidth + right) * targetHeight / targetWidth)
+                        - (top + sourceHeight + bottom);
+                bottom += delta;
+                if (bottom < 0) {
+                    sourceHeight = Math.max(1, sourceHeight + bottom);
+                    bottom = 0;
+                }
+            }
+        }
+        AlignmentPlan plan = new AlignmentPlan(0, 0, sourceWidth, sourceHeight, top, bottom, left, right);
+        return streaming
+                ? new Decoded(source, plan, () -> codecs.returnReader(reader))
+                : new Decoded(image, plan);
+    }
+
+    private BufferedImage read(ImageReader reader, Rectangle region, int subsampling) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        if (region != null) {
+            param.setSourceRegion(region);
+        }
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        LOG.debug("Decoding {} with subsampling {}", region == null ? "image" : region, subsampling);
+        return ColorNormalizer.normalize(reader.read(0, param));
+    }
+
+    /**
+     * @return the largest subsampling that keeps an image of the given size at least the oversampling times larger
+     * than the target, or 1
+     */
+    int getSubsampling(int width, int height) {
+        return getSubsampling(width, height, oversampling);
+    }
+
+    private int getSubsampling(int width, int height, int ratio) {
+        if (ratio <= 0) {
+            return 1;
+        }
+        long horizontal = width / ((long) targetWidth * ratio);
+        long vertical = height / ((long) targetHeight * ratio);
+        return (int) Math.max(1, Math.min(horizontal, vertical));
+    }
+
+    /**
+     * A decoded image, or the rows of a streamed one, with the alignment plan relative to it.
+     */
+    static final class Decoded implements AutoCloseable {
+
+        private final BufferedImage image;
+        private final RowSource source;
+        private final AlignmentPlan plan;
+        private final Runnable release;
+
+        Decoded(BufferedImage image, AlignmentPlan plan) {
+            this.image = image;
+            this.source = RowSource.of(image);
+            this.plan = plan;
+            this.release = null;
+        }
+
+        Decoded(RowSource source, AlignmentPlan plan, Runnable release) {
+            this.image = null;
+            this.source = source;
+            this.plan = plan;
+            this.release = release;
+        }
+
+        /**
+         * @return the decoded image, or null when the image is streamed
+         */
+        BufferedImage getImage() {
+            return image;
+        }
+
+        /**
+         * @return the rows of the image
+         */
+        RowSource getSource() {
+            return source;
+        }
+
+        AlignmentPlan getPlan() {
+            return plan;
+        }
+
+        /**
+         * Returns the reader of a streamed image to the pool.
+         */
+        @Override
+        public void close() {
+            if (release != null) {
+                release.run();
+            }
+        }
+    }
+}
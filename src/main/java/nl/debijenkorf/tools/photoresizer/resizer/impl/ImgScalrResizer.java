@@ -1,78 +1,390 @@
 package nl.debijenkorf.tools.photoresizer.resizer.impl;
 
-import org.imgscalr.Scalr;
 import javax.imageio.*;
+import javax.imageio.metadata.IIOInvalidTreeException;
 import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import nl.debijenkorf.tools.photoresizer.Configuration;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
 import nl.debijenkorf.tools.photoresizer.resizer.ImageAligner;
 import nl.debijenkorf.tools.photoresizer.resizer.ImageResizerService;
 import nl.debijenkorf.tools.photoresizer.resizer.Preset;
+import nl.debijenkorf.tools.photoresizer.resizer.ScalingQuality;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 
 /**
- * Image resizer service using ImgScalr library
+ * Image resizer service. The image is trimmed, padded and scaled in a single pass by the {@link PlanRenderer}, with the
+ * same output geometry as the ImgScalr library. See {@link KernelResizer} for other filters.
  *
  * Created by Daniel on 18/04/15.
  */
 public class ImgScalrResizer implements ImageResizerService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ImgScalrResizer.class);
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+    private static final int MIN_QUALITY = 1;
+    private static final int MAX_TRIES = 8;
+
     private final ImageAligner aligner;
+    private final Renderer renderer;
+    private final int cores = Runtime.getRuntime().availableProcessors();
+    private final CodecPool codecs = new CodecPool(cores * 2);
+    private final AtomicInteger inFlight = new AtomicInteger();
 
     public ImgScalrResizer(ImageAligner filler) {
+        this(filler, PlanRenderer::render);
+    }
+
+    ImgScalrResizer(ImageAligner filler, Renderer renderer) {
         this.aligner = filler;
+        this.renderer = renderer;
     }
 
     @Override
     public void process(Preset preset, Color color, boolean align, InputStream input, OutputStream output) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null) {
+                throw new IOException("Image format is not supported");
+            }
+            process(preset, color, align, stream, output);
+        }
+    }
+
+    @Override
+    public void process(Preset preset, Color color, boolean align, Path input, OutputStream output) throws IOException {
+        try (ImageInputStream stream = ChannelImageInputStream.open(input)) {
+            process(preset, color, align, stream, output);
+        }
+    }
+
+    @Override
+    public void process(Color color, boolean align, Path input, List<ImageProfile> profiles, Output output)
+            throws IOException {
+        if (profiles.isEmpty()) {
+            return;
+        }
+
+        inFlight.incrementAndGet();
+        try {
+            process(color, align, input, profiles, output, this::isParallel);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public long estimateMemory(Path input, List<ImageProfile> profiles) throws IOException {
+        int width = Configuration.TARGET_WIDTH;
+        int height = Configuration.TARGET_HEIGHT;
+        long canvases = (long) width * height * 4;
+        if (!profiles.isEmpty()) {
+            // decoded for the largest profile, and every rendition is kept for the smaller ones
+            width = 0;
+            height = 0;
+            canvases = 0;
+            for (ImageProfile profile : profiles) {
+                width = Math.max(width, profile.width);
+                height = Math.max(height, profile.height);
+                canvases += (long) profile.width * profile.height * 4;
+            }
+        }
+
+        boolean twoPhase = profiles.isEmpty() && Configuration.isTwoPhaseDecode();
+        ImageDecoder decoder = new ImageDecoder(codecs, width, height, getOversampling(profiles), twoPhase);
+        try (ImageInputStream stream = ChannelImageInputStream.open(input)) {
+            return decoder.estimate(stream, profiles.isEmpty()) + canvases;
+        }
+    }
+
+    private void process(Color color, boolean align, Path input, List<ImageProfile> profiles, Output output,
+            BooleanSupplier parallel) throws IOException {
+
+        // largest first, so the smaller renditions can be derived from the larger ones
+        List<ImageProfile> ordered = new ArrayList<>(profiles);
+        ordered.sort(Comparator.comparingInt((ImageProfile profile) -> profile.width * profile.height).reversed());
+        int maxWidth = 0;
+        int maxHeight = 0;
+        for (ImageProfile profile : ordered) {
+            if (profile.width <= 0 || profile.height <= 0) {
+                throw new IllegalArgumentException("Profile has no size: " + profile);
+            }
+            maxWidth = Math.max(maxWidth, profile.width);
+            maxHeight = Math.max(maxHeight, profile.height);
+        }
+
+        // decoded for the largest profile, the region of a single plan can not be used for all profiles
+        ImageDecoder decoder = new ImageDecoder(codecs, maxWidth, maxHeight, getOversampling(ordered), false);
+        BufferedImage bufferedImage;
+        try (ImageInputStream stream = ChannelImageInputStream.open(input)) {
+            bufferedImage = decoder.decode(stream, AlignmentPlan::of).getImage();
+        }
+        List<AlignmentPlan> plans = align
+                ? aligner.plan(bufferedImage, ordered)
+                : Collections.nCopies(ordered.size(), AlignmentPlan.of(bufferedImage));
+
+        Color fillColor = Configuration.isDebug() ? Color.LIGHT_GRAY : opaque(color);
+        RenditionChain chain = new RenditionChain(renderer, bufferedImage, fillColor, parallel);
+        for (int i = 0; i < ordered.size(); i++) {
+            ImageProfile profile = ordered.get(i);
+            BufferedImage rendition = chain.render(plans.get(i), profile.width, profile.height,
+                    Configuration.getScalingQuality(profile));
+            output.write(profile, (os) -> write(rendition, os, profile.quality / 100F, profile.subSampling));
+        }
+    }
+
+    private void process(Preset preset, Color color, boolean align, ImageInputStream input, OutputStream output)
+            throws IOException {
+        inFlight.incrementAndGet();
+        try {
+            process(preset, color, align, input, output, this::isParallel);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void process(Preset preset, Color color, boolean align, ImageInputStream input, OutputStream output,
+            BooleanSupplier parallel) throws IOException {
         int targetWidth = Configuration.TARGET_WIDTH;
         int targetHeight = Configuration.TARGET_HEIGHT;
         double targetAspectRatio = (double) targetWidth / targetHeight;
 
-        BufferedImage bufferedImage = ImageIO.read(input);
-        if (bufferedImage == null) {
-            throw new IOException("Image format is not supported");
+        ScalingQuality quality = Configuration.getScalingQuality();
+        // without alignment the plan covers the whole image, a preview would not leave anything out
+        ImageDecoder decoder = new ImageDecoder(codecs, targetWidth, targetHeight, getOversampling(quality),
+                align && Configuration.isTwoPhaseDecode());
+        BufferedImage scaledImage;
+        try (ImageDecoder.Decoded decoded = decoder.open(input, align
+                ? image -> plan(preset, image, targetAspectRatio)
+                : AlignmentPlan::of)) {
+            AlignmentPlan plan = decoded.getPlan();
+
+            // trim, pad and resize in a single pass
+            Color fillColor = Configuration.isDebug() ? Color.LIGHT_GRAY : opaque(color);
+            scaledImage = renderer.render(decoded.getSource(), plan.fit(targetWidth, targetHeight), fillColor,
+                    quality, parallel.getAsBoolean());
+        } catch (UncheckedIOException ex) {
+            // a strip of a streamed image could not be decoded
+            throw ex.getCause();
         }
-        if (align) {
-            bufferedImage = align(preset, color, bufferedImage, targetAspectRatio);
+
+        // recompress
+        write(scaledImage, output, Configuration.getEncodeQuality() / 100F, Configuration.isChromaSubsampling());
+    }
+
+    /**
+     * Renders in parallel bands while fewer files are in flight than there are cores, which is the case for the last
+     * files of a batch and for a single file. During the rest of a batch every core already has a file. It is asked
+     * when rendering starts, not when the file enters: at the start of a batch the first files are entered while the
+     * other threads are still idle, but by the time they are decoded every thread has a file.
+     */
+    private boolean isParallel() {
+        return Configuration.isParallelRendering() && inFlight.get() < cores;
+    }
+
+    /**
+     * JPEG has no alpha, sources with alpha are flattened onto an opaque fill color.
+     */
+    private static Color opaque(Color color) {
+        return color.getAlpha() == 255 ? color : new Color(color.getRGB() & 0xFFFFFF);
+    }
+
+    /**
+     * Only the best quality keeps the configured oversampling, the other qualities are decoded as close to the target
+     * size as the subsampling allows.
+     */
+    private static int getOversampling(ScalingQuality quality) {
+        return quality == ScalingQuality.BEST ? Configuration.getDecodeOversampling() : 1;
+    }
+
+    /**
+     * Images for several profiles are decoded with the oversampling of the best quality among the profiles.
+     *
+     * @param profiles the profiles, or none for the target size
+     */
+    private static int getOversampling(List<ImageProfile> profiles) {
+        if (profiles.isEmpty()) {
+            return getOversampling(Configuration.getScalingQuality());
         }
+        return profiles.stream().anyMatch((profile) -> Configuration.getScalingQuality(profile) == ScalingQuality.BEST)
+                ? Configuration.getDecodeOversampling() : 1;
+    }
+
+    /**
+     * Writes the image as a JPEG of the highest quality.
+     */
+    void write(BufferedImage image, OutputStream output) throws IOException {
+        write(image, output, 1F, true);
+    }
 
-        // resize
-        BufferedImage scaledImage = Scalr.resize(bufferedImage, Scalr.Method.ULTRA_QUALITY, targetWidth, targetHeight);
-        if (scaledImage.getWidth() > targetWidth || scaledImage.getHeight() > targetHeight) {
-            scaledImage = Scalr.crop(scaledImage, targetWidth, targetHeight);
+    /**
+     * Writes the image as a JPEG. With a {@link Configuration#getEncodeMaxBytes() budget}, the quality is lowered
+     * until the image fits, see {@link #encodeWithin}.
+     *
+     * @param quality compression quality between 0 and 1
+     * @param chromaSubsampling when false the color channels are stored at full resolution
+     */
+    void write(BufferedImage image, OutputStream output, float quality, boolean chromaSubsampling) throws IOException {
+        BufferedImage rgb = toRgb(image);
+        ImageWriter writer = codecs.borrowWriter("jpeg");
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+
+            IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(rgb), param);
+            if (!chromaSubsampling) {
+                disableChromaSubsampling(metadata);
+            }
+
+            IIOImage iioImage = new IIOImage(rgb, null, metadata);
+            long maxBytes = Configuration.getEncodeMaxBytes();
+            if (maxBytes > 0) {
+                encodeWithin(writer, iioImage, param, maxBytes, output);
+            } else {
+                encode(writer, iioImage, param, output);
+            }
+        } finally {
+            codecs.returnWriter(writer);
         }
+    }
 
-        // recompress
-        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
-        writer.setOutput(ImageIO.createImageOutputStream(output));
+    /**
+     * Gray canvases are resampled as a single channel, but written as RGB like every other image, so the outputs are
+     * the color JPEGs the shops expect. The gray levels are copied into every channel.
+     */
+    private static BufferedImage toRgb(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        byte[] gray = new byte[width];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRaster().getDataElements(0, y, width, 1, gray);
+            for (int x = 0; x < width; x++) {
+                row[x] = (gray[x] & 0xFF) * 0x010101;
+            }
+            rgb.getRaster().setDataElements(0, y, width, 1, row);
+        }
+        return rgb;
+    }
 
-        ImageWriteParam param = writer.getDefaultWriteParam();
-        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-        param.setCompressionQuality(1F);
-        param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+    private static void encode(ImageWriter writer, IIOImage image, ImageWriteParam param, OutputStream output)
+            throws IOException {
+        // cache in memory, the default cache of ImageIO spools through a temporary file
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.write(null, image, param);
+        }
+    }
 
-        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(scaledImage), param);
+    /**
+     * Writes the image with the highest quality, in whole percents up to the quality of the parameters, that fits in
+     * the budget. The image is encoded in memory at the quality of the parameters first, which fits most of the time.
+     * Otherwise the quality is searched with at most {@link #MAX_TRIES} more encodes. Every encode uses the same
+     * writer, parameters and metadata, only the compression quality that scales the quantization tables changes.
+     * When no quality fits, the smallest of these encodes is written, which is never above the quality of the
+     * parameters.
+     */
+    private static void encodeWithin(ImageWriter writer, IIOImage image, ImageWriteParam param, long maxBytes,
+            OutputStream output) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(maxBytes + 1, 1 << 24));
+        encode(writer, image, param, buffer);
+        if (buffer.size() <= maxBytes) {
+            buffer.writeTo(output);
+            return;
+        }
+
+        int requested = Math.round(param.getCompressionQuality() * 100);
+        int low = Math.min(requested, MIN_QUALITY);
+        int high = requested - 1;
+        int fitting = -1;
+        byte[] encoded = null;
+        // the smallest encode that did not fit, written when no quality fits
+        int smallestQuality = requested;
+        byte[] smallest = buffer.toByteArray();
+        for (int tries = 0; low <= high && tries < MAX_TRIES; tries++) {
+            int quality = (low + high) >>> 1;
+            param.setCompressionQuality(quality / 100F);
+            buffer.reset();
+            encode(writer, image, param, buffer);
+            if (buffer.size() <= maxBytes) {
+                fitting = quality;
+                encoded = buffer.toByteArray();
+                low = quality + 1;
+            } else {
+                if (encoded == null && buffer.size() < smallest.length) {
+                    smallestQuality = quality;
+                    smallest = buffer.toByteArray();
+                }
+                high = quality - 1;
+            }
+        }
 
-        writer.write(null, new IIOImage(scaledImage, null, metadata), param);
+        if (encoded == null) {
+            LOG.warn("Image does not fit in {} bytes, written with quality {} in {} bytes",
+                    maxBytes, smallestQuality, smallest.length);
+            output.write(smallest);
+        } else {
+            LOG.debug("Image fits in {} bytes with quality {}", maxBytes, fitting);
+            output.write(encoded);
+        }
     }
 
-    private BufferedImage align(Preset preset, Color color, BufferedImage bufferedImage, double targetAspectRatio) {
-        BufferedImage alignedImage = bufferedImage;
-        // align image if profile requires it
+    /**
+     * Samples every component of the frame 1x1, the writer subsamples the chroma 2x2 by default.
+     */
+    private static void disableChromaSubsampling(IIOMetadata metadata) throws IIOInvalidTreeException {
+        Element tree = (Element) metadata.getAsTree(JPEG_METADATA_FORMAT);
+        NodeList components = tree.getElementsByTagName("componentSpec");
+        for (int i = 0; i < components.getLength(); i++) {
+            Element component = (Element) components.item(i);
+            component.setAttribute("HsamplingFactor", "1");
+            component.setAttribute("VsamplingFactor", "1");
+        }
+        metadata.setFromTree(JPEG_METADATA_FORMAT, tree);
+    }
+
+    /**
+     * Disposes the pooled image readers and writers.
+     */
+    @Override
+    public void close() {
+        codecs.close();
+    }
 
+    private AlignmentPlan plan(Preset preset, BufferedImage bufferedImage, double targetAspectRatio) {
+        // align image if profile requires it
         int topMarginPercent = (int) preset.getTopLine();
         int bottomMarginPercent = (int) (100 - preset.getBaseLine());
         int leftRightMargin = (int) preset.getLeftRightMargin();
-        alignedImage = aligner.align(
+        return aligner.plan(
                 bufferedImage, targetAspectRatio,
                 bottomMarginPercent, topMarginPercent, leftRightMargin,
-                Configuration.isDebug() ? Color.LIGHT_GRAY : color, preset.getValign());
-
-        return alignedImage;
+                preset.getValign());
     }
 
 }
@@ -0,0 +1,111 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
+import nl.debijenkorf.tools.photoresizer.resizer.ResamplingKernel;
+import nl.debijenkorf.tools.photoresizer.resizer.ScalingQuality;
+import nl.debijenkorf.tools.photoresizer.resizer.impl.PlanRenderer.Taps;
+
+/**
+ * Renders plans with a {@link ResamplingKernel}, through the passes of the {@link PlanRenderer}. The taps of every axis
+ * only depend on the padded, scaled and canvas length, which are the same for most images of a batch, so they are
+ * computed once and cached. Drafts are still rendered with the nearest neighbour.
+ *
+ * @author Maarten Blokker
+ */
+final class KernelRenderer implements Renderer {
+
+    private static final int MAX_TAPS = 64;
+
+    private final ResamplingKernel kernel;
+    private final LoadingCache<Key, Taps> taps;
+
+    KernelRenderer(ResamplingKernel kernel) {
+        this.kernel = kernel;
+        this.taps = CacheBuilder.newBuilder()
+                .maximumSize(MAX_TAPS)
+                .build(CacheLoader.from(this::taps));
+    }
+
+    @Override
+    public BufferedImage render(RowSource source, AlignmentPlan plan, Color fillColor, ScalingQuality quality,
+            boolean parallel) {
+        if (quality == ScalingQuality.DRAFT) {
+            return PlanRenderer.render(source, plan, fillColor, quality, parallel);
+        }
+        return PlanRenderer.render(source, plan, fillColor,
+                taps.getUnchecked(new Key(plan.getPaddedWidth(), plan.getScaledWidth(), plan.getCanvasWidth())),
+                taps.getUnchecked(new Key(plan.getPaddedHeight(), plan.getScaledHeight(), plan.getCanvasHeight())),
+                parallel);
+    }
+
+    /**
+     * The kernel is stretched by the downscale factor, and normalized over the pixels of the padded image it covers.
+     */
+    private Taps taps(Key key) {
+        double scale = (double) key.padded / key.scaled;
+        double stretch = Math.max(1, scale);
+        double radius = kernel.getRadius() * stretch;
+        Taps taps = new Taps(key.length, (int) Math.ceil(radius * 2) + 1);
+
+        for (int i = 0; i < key.length; i++) {
+            double center = (i + 0.5) * scale;
+            int offset = i * taps.stride;
+            // pixels with their center strictly within the radius
+            int from = Math.max(0, (int) Math.floor(center - radius - 0.5) + 1);
+            int to = Math.min(key.padded, (int) Math.ceil(center + radius - 0.5));
+
+            double total = 0;
+            for (int p = from; p < to; p++) {
+                double weight = kernel.weight((p + 0.5 - center) / stretch);
+                taps.weights[offset + p - from] = weight;
+                total += weight;
+            }
+            if (to <= from || total == 0) {
+                // the pixel under the center
+                from = Math.min(key.padded - 1, (int) center);
+                to = from + 1;
+                taps.weights[offset] = 1;
+                total = 1;
+            }
+            for (int p = from; p < to; p++) {
+                taps.weights[offset + p - from] /= total;
+            }
+            taps.from[i] = from;
+            taps.count[i] = to - from;
+        }
+        return taps;
+    }
+
+    private static final class Key {
+
+        final int padded;
+        final int scaled;
+        final int length;
+
+        Key(int padded, int scaled, int length) {
+            this.padded = padded;
+            this.scaled = scaled;
+            this.length = length;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return padded == other.padded && scaled == other.scaled && length == other.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(padded, scaled, length);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import nl.debijenkorf.tools.photoresizer.resizer.ImageAligner;
+import nl.debijenkorf.tools.photoresizer.resizer.ResamplingKernel;
+
+/**
+ * Image resizer service that resamples with a {@link ResamplingKernel} instead of an area average. Decoding, alignment
+ * and encoding are the same as those of the {@link ImgScalrResizer}.
+ *
+ * @author Maarten Blokker
+ */
+public class KernelResizer extends ImgScalrResizer {
+
+    public KernelResizer(ImageAligner aligner, ResamplingKernel kernel) {
+        super(aligner, new KernelRenderer(kernel));
+    }
+}
@@ -0,0 +1,508 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
+import nl.debijenkorf.tools.photoresizer.resizer.ScalingQuality;
+
+/**
+ * Renders an {@link AlignmentPlan} straight from the source raster into a canvas that is pre-filled with the fill
+ * color, so the trimmed, padded and full size scaled images never exist.
+ *
+ * The padded image is resampled with a separable filter, by default an area average: every canvas pixel covers a
+ * rectangle of the padded image, and every source pixel is weighted by how much of it lies in that rectangle. When
+ * upscaling the rectangle is kept at least one pixel wide, which makes it a bilinear interpolation. The
+ * {@link ScalingQuality} can choose other filters, see {@link Filter}, and other filters can supply their own
+ * {@link Taps}, see {@link KernelRenderer}. Weights of pixels in the padding are applied to the fill color. Source
+ * rows are read at most once, top to bottom, and resampled horizontally into a small ring of rows from which the
+ * canvas rows are blended. Rows without weight are never read. The source can therefore also be decoded while it is
+ * read, see {@link StripReader}.
+ *
+ * In parallel, the canvas is rendered in horizontal bands on the common {@link ForkJoinPool}. Every band has its own
+ * ring of rows and reads every source row its canvas rows need. The source rows under the filter at the border of two
+ * bands are resampled by both, so the bands give the same canvas as a single pass. Sources that must be read top to
+ * bottom are always rendered in a single pass.
+ *
+ * The canvas only has alpha when the fill color has it. A source with alpha on an opaque fill is blended with alpha
+ * and then flattened onto the fill color. A gray source on a gray fill is resampled as a single channel into a gray
+ * canvas.
+ *
+ * @author Maarten Blokker
+ */
+final class PlanRenderer {
+
+    private static final int MIN_BAND_HEIGHT = 64;
+
+    private PlanRenderer() {
+    }
+
+    /**
+     * Renders with the best quality, see {@link #render(BufferedImage, AlignmentPlan, Color, ScalingQuality)}.
+     */
+    static BufferedImage render(BufferedImage image, AlignmentPlan plan, Color fillColor) {
+        return render(image, plan, fillColor, ScalingQuality.BEST);
+    }
+
+    /**
+     * Renders in a single thread, see {@link #render(RowSource, AlignmentPlan, Color, ScalingQuality, boolean)}.
+     */
+    static BufferedImage render(BufferedImage image, AlignmentPlan plan, Color fillColor, ScalingQuality quality) {
+        return render(RowSource.of(image), plan, fillColor, quality, false);
+    }
+
+    /**
+     * @param source the source image
+     * @param plan scaled plan, see {@link AlignmentPlan#fit(int, int)}
+     * @param fillColor color of the padding
+     * @param quality chooses the filter of each axis
+     * @param parallel true to render in bands on the common {@link ForkJoinPool}
+     * @return the canvas, with alpha when the fill color has it and gray when both the source and the fill color are
+     */
+    static BufferedImage render(RowSource source, AlignmentPlan plan, Color fillColor, ScalingQuality quality,
+            boolean parallel) {
+        Taps horizontal = Taps.of(Filter.of(quality, (double) plan.getPaddedWidth() / plan.getScaledWidth()),
+                plan.getPaddedWidth(), plan.getScaledWidth(), plan.getCanvasWidth());
+        Taps vertical = Taps.of(Filter.of(quality, (double) plan.getPaddedHeight() / plan.getScaledHeight()),
+                plan.getPaddedHeight(), plan.getScaledHeight(), plan.getCanvasHeight());
+        return render(source, plan, fillColor, horizontal, vertical, parallel);
+    }
+
+    /**
+     * @param source the source image
+     * @param plan scaled plan, see {@link AlignmentPlan#fit(int, int)}
+     * @param fillColor color of the padding
+     * @param horizontal taps over the padded width, for the canvas width
+     * @param vertical taps over the padded height, for the canvas height
+     * @param parallel true to render in bands on the common {@link ForkJoinPool}
+     * @return the canvas, with alpha when the fill color has it and gray when both the source and the fill color are
+     */
+    static BufferedImage render(RowSource source, AlignmentPlan plan, Color fillColor, Taps horizontal,
+            Taps vertical, boolean parallel) {
+        boolean alpha = fillColor.getAlpha() != 255;
+        boolean gray = !alpha && !source.hasAlpha() && source.isGray()
+                && fillColor.getRed() == fillColor.getGreen() && fillColor.getGreen() == fillColor.getBlue();
+        int channels = alpha || source.hasAlpha() ? 4 : gray ? 1 : 3;
+        int width = plan.getCanvasWidth();
+        int height = plan.getCanvasHeight();
+
+        BufferedImage canvas = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB
+                : gray ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB);
+        Graphics g = canvas.getGraphics();
+        g.setColor(fillColor);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+
+        Weights horizontalWeights = new Weights(horizontal, plan.getLeftPadding(), plan.getSourceWidth());
+        Weights verticalWeights = new Weights(vertical, plan.getTopPadding(), plan.getSourceHeight());
+        if (parallel && source.isRandomAccess() && height >= MIN_BAND_HEIGHT * 2) {
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            int bandHeight = Math.max(MIN_BAND_HEIGHT, height / (pool.getParallelism() * 2));
+            pool.invoke(new BandTask(() -> new Pass(source, plan, canvas, channels, fillColor,
+                    horizontalWeights, verticalWeights), 0, height, bandHeight));
+        } else {
+            new Pass(source, plan, canvas, channels, fillColor, horizontalWeights, verticalWeights).run(0, height);
+        }
+        return canvas;
+    }
+
+    /**
+     * Resampling filter of one axis.
+     */
+    enum Filter {
+
+        /**
+         * The pixel under the center of every canvas pixel.
+         */
+        NEAREST,
+        /**
+         * Linear interpolation between the two pixels around the center of every canvas pixel when upscaling. When
+         * downscaling the tent is stretched by the scale factor, like a bilinear kernel, so it weighs every pixel
+         * within one canvas pixel of the center.
+         */
+        BILINEAR,
+        /**
+         * Average of the pixels covered by every canvas pixel, a linear interpolation when upscaling.
+         */
+        AREA;
+
+        /**
+         * @param quality the scaling quality
+         * @param scale downscale factor of the axis
+         * @return the filter for the axis
+         */
+        static Filter of(ScalingQuality quality, double scale) {
+            switch (quality) {
+                case DRAFT:
+                    return NEAREST;
+                case AUTO:
+                    return scale < 2 ? BILINEAR : AREA;
+                default:
+                    return AREA;
+            }
+        }
+    }
+
+    /**
+     * Filter taps along one axis of the padded image. For every canvas index the contributing padded pixels are a
+     * contiguous range. Taps do not depend on where the source lies within the padding, so they hold for every plan
+     * with the same padded, scaled and canvas length.
+     */
+    static final class Taps {
+
+        final int[] from;
+        final int[] count;
+        final double[] weights;
+        final int stride;
+
+        /**
+         * @param length length of the canvas
+         * @param stride maximum number of taps of a canvas index
+         */
+        Taps(int length, int stride) {
+            this.from = new int[length];
+            this.count = new int[length];
+            this.weights = new double[length * stride];
+            this.stride = stride;
+        }
+
+        /**
+         * @param filter the filter
+         * @param padded length of the padded image
+         * @param scaled length of the scaled image
+         * @param length length of the canvas, at most the scaled length
+         * @return the taps of the filter
+         */
+        static Taps of(Filter filter, int padded, int scaled, int length) {
+            double scale = (double) padded / scaled;
+            double radius = Math.max(1, scale) / 2;
+            // the tent reaches twice as far as the area
+            Taps taps = new Taps(length, filter == Filter.AREA ? (int) Math.ceil(radius * 2) + 1
+                    : filter == Filter.BILINEAR ? (int) Math.ceil(radius * 4) + 1 : 1);
+
+            for (int i = 0; i < length; i++) {
+                double center = (i + 0.5) * scale;
+                int offset = i * taps.stride;
+                int from;
+                int to;
+                if (filter == Filter.NEAREST) {
+                    from = Math.min(padded - 1, (int) center);
+                    to = from + 1;
+                    taps.weights[offset] = 1;
+                } else if (filter == Filter.BILINEAR) {
+                    // pixels with their center strictly within the tent, normalized over those in the padded image
+                    double width = radius * 2;
+                    from = Math.max(0, (int) Math.floor(center - width - 0.5) + 1);
+                    to = Math.min(padded, (int) Math.ceil(center + width - 0.5));
+                    double total = 0;
+                    for (int p = from; p < to; p++) {
+                        double weight = 1 - Math.abs(p + 0.5 - center) / width;
+                        taps.weights[offset + p - from] = weight;
+                        total += weight;
+                    }
+                    if (to <= from) {
+                        // the pixel under the center
+                        from = Math.min(padded - 1, (int) center);
+                        to = from + 1;
+                        taps.weights[offset] = 1;
+                        total = 1;
+                    }
+                    for (int p = from; p < to; p++) {
+                        taps.weights[offset + p - from] /= total;
+                    }
+                } else {
+                    double low = Math.max(0, center - radius);
+                    double high = Math.min(padded, center + radius);
+                    from = (int) Math.floor(low);
+                    to = Math.min(padded, (int) Math.ceil(high));
+                    double total = high - low;
+                    for (int p = from; p < to; p++) {
+                        taps.weights[offset + p - from] = (Math.min(high, p + 1) - Math.max(low, p)) / total;
+                    }
+                }
+                taps.from[i] = from;
+                taps.count[i] = to - from;
+            }
+            return taps;
+        }
+    }
+
+    /**
+     * Resampling weights along one axis. For every canvas index the contributing source pixels are a contiguous range,
+     * the remaining weight belongs to the fill.
+     */
+    static final class Weights {
+
+        final int[] first;
+        final int[] count;
+        final float[] weights;
+        final float[] fill;
+        final int stride;
+
+        /**
+         * @param taps taps over the padded image
+         * @param padding padding before the source
+         * @param source length of the source region
+         */
+        Weights(Taps taps, int padding, int source) {
+            int length = taps.from.length;
+            this.stride = taps.stride;
+            this.first = new int[length];
+            this.count = new int[length];
+            this.weights = new float[length * stride];
+            this.fill = new float[length];
+
+            for (int i = 0; i < length; i++) {
+                int from = taps.from[i];
+                int sourceFrom = Math.max(from, padding);
+                int sourceTo = Math.min(from + taps.count[i], padding + source);
+                double sourceTotal = 0;
+                first[i] = Math.max(0, sourceFrom - padding);
+                for (int p = sourceFrom; p < sourceTo; p++) {
+                    double weight = taps.weights[i * stride + p - from];
+                    weights[i * stride + count[i]++] = (float) weight;
+                    sourceTotal += weight;
+                }
+                // negative when the fill only lies under a negative lobe of the filter
+                fill[i] = (float) (1 - sourceTotal);
+            }
+        }
+    }
+
+    private static final class Pass {
+
+        private final RowSource source;
+        private final boolean opaqueSource;
+        private final AlignmentPlan plan;
+        private final WritableRaster canvas;
+        private final boolean flatten;
+        private final int channels;
+        private final float[] fillColor;
+        private final Weights horizontal;
+        private final Weights vertical;
+
+        private final int[] sourceRow;
+        private final float[][] rows;
+        private final int[] rowIndex;
+        private final float[] sum;
+        private final int[] canvasRow;
+        private final byte[] grayRow;
+
+        /**
+         * @param channels 4 to blend with alpha, 3 for RGB and 1 for gray
+         */
+        Pass(RowSource source, AlignmentPlan plan, BufferedImage canvas, int channels, Color fillColor,
+                Weights horizontal, Weights vertical) {
+            this.source = source;
+            this.opaqueSource = !source.hasAlpha();
+            this.plan = plan;
+            this.canvas = canvas.getRaster();
+            this.flatten = channels == 4 && !canvas.getColorModel().hasAlpha();
+            this.channels = channels;
+            this.horizontal = horizontal;
+            this.vertical = vertical;
+
+            // colors are averaged premultiplied when there is alpha
+            float fillAlpha = fillColor.getAlpha() / 255F;
+            this.fillColor = channels == 4
+                    ? new float[]{fillColor.getAlpha(), fillColor.getRed() * fillAlpha,
+                        fillColor.getGreen() * fillAlpha, fillColor.getBlue() * fillAlpha}
+                    : channels == 3
+                    ? new float[]{fillColor.getRed(), fillColor.getGreen(), fillColor.getBlue()}
+                    : new float[]{fillColor.getRed()};
+
+            int width = plan.getCanvasWidth();
+            this.sourceRow = new int[plan.getSourceWidth()];
+            this.rows = new float[vertical.stride][width * channels];
+            this.rowIndex = new int[vertical.stride];
+            this.sum = new float[width * channels];
+            this.canvasRow = channels == 1 ? null : new int[width];
+            this.grayRow = channels == 1 ? new byte[width] : null;
+            Arrays.fill(rowIndex, -1);
+        }
+
+        /**
+         * Renders the canvas rows {@code [from, to)}.
+         */
+        void run(int from, int to) {
+            for (int y = from; y < to; y++) {
+                int count = vertical.count[y];
+                if (count == 0) {
+                    // only fill, the canvas already has it
+                    continue;
+                }
+
+                int first = vertical.first[y];
+                float fill = vertical.fill[y];
+                for (int i = 0; i < sum.length; i++) {
+                    sum[i] = fill * fillColor[i % channels];
+                }
+                for (int k = 0; k < count; k++) {
+                    float weight = vertical.weights[y * vertical.stride + k];
+                    float[] row = row(first + k);
+                    for (int i = 0; i < sum.length; i++) {
+                        sum[i] += weight * row[i];
+                    }
+                }
+                write(y);
+            }
+        }
+
+        /**
+         * @return the horizontally resampled source row, relative to the source region
+         */
+        private float[] row(int y) {
+            int slot = y % rows.length;
+            float[] row = rows[slot];
+            if (rowIndex[slot] == y) {
+                return row;
+            }
+            rowIndex[slot] = y;
+
+            int sourceY = plan.getSourceY() + y;
+            source.readRow(plan.getSourceX(), sourceY, sourceRow.length, sourceRow);
+
+            if (channels == 4) {
+                if (opaqueSource) {
+                    for (int x = 0; x < sourceRow.length; x++) {
+                        sourceRow[x] |= 0xFF000000;
+                    }
+                }
+                resampleWithAlpha(row);
+            } else if (channels == 3) {
+                resample(row);
+            } else {
+                resampleGray(row);
+            }
+            return row;
+        }
+
+        private void resampleGray(float[] row) {
+            for (int x = 0; x < row.length; x++) {
+                float gray = horizontal.fill[x] * fillColor[0];
+
+                int offset = x * horizontal.stride;
+                int first = horizontal.first[x];
+                for (int k = 0; k < horizontal.count[x]; k++) {
+                    gray += horizontal.weights[offset + k] * (sourceRow[first + k] & 0xFF);
+                }
+                row[x] = gray;
+            }
+        }
+
+        private void resample(float[] row) {
+            for (int x = 0, index = 0; x < canvasRow.length; x++, index += 3) {
+                float fill = horizontal.fill[x];
+                float red = fill * fillColor[0];
+                float green = fill * fillColor[1];
+                float blue = fill * fillColor[2];
+
+                int offset = x * horizontal.stride;
+                int first = horizontal.first[x];
+                for (int k = 0; k < horizontal.count[x]; k++) {
+                    float weight = horizontal.weights[offset + k];
+                    int pixel = sourceRow[first + k];
+                    red += weight * ((pixel >> 16) & 0xFF);
+                    green += weight * ((pixel >> 8) & 0xFF);
+                    blue += weight * (pixel & 0xFF);
+                }
+
+                row[index] = red;
+                row[index + 1] = green;
+                row[index + 2] = blue;
+            }
+        }
+
+        private void resampleWithAlpha(float[] row) {
+            for (int x = 0, index = 0; x < canvasRow.length; x++, index += 4) {
+                float fill = horizontal.fill[x];
+                float alpha = fill * fillColor[0];
+                float red = fill * fillColor[1];
+                float green = fill * fillColor[2];
+                float blue = fill * fillColor[3];
+
+                int offset = x * horizontal.stride;
+                int first = horizontal.first[x];
+                for (int k = 0; k < horizontal.count[x]; k++) {
+                    int pixel = sourceRow[first + k];
+                    float pixelAlpha = (pixel >>> 24) * horizontal.weights[offset + k];
+                    alpha += pixelAlpha;
+                    red += pixelAlpha / 255F * ((pixel >> 16) & 0xFF);
+                    green += pixelAlpha / 255F * ((pixel >> 8) & 0xFF);
+                    blue += pixelAlpha / 255F * (pixel & 0xFF);
+                }
+
+                row[index] = alpha;
+                row[index + 1] = red;
+                row[index + 2] = green;
+                row[index + 3] = blue;
+            }
+        }
+
+        private void write(int y) {
+            if (channels == 1) {
+                for (int x = 0; x < grayRow.length; x++) {
+                    grayRow[x] = (byte) clamp(sum[x]);
+                }
+                canvas.setDataElements(0, y, grayRow.length, 1, grayRow);
+                return;
+            }
+
+            for (int x = 0, index = 0; x < canvasRow.length; x++, index += channels) {
+                if (flatten) {
+                    // the premultiplied color over the opaque fill color
+                    float rest = 1 - sum[index] / 255F;
+                    canvasRow[x] = clamp(sum[index + 1] + rest * fillColor[1]) << 16
+                            | clamp(sum[index + 2] + rest * fillColor[2]) << 8
+                            | clamp(sum[index + 3] + rest * fillColor[3]);
+                } else if (channels == 4) {
+                    float a = sum[index];
+                    float scale = a > 0 ? 255F / a : 0;
+                    canvasRow[x] = clamp(a) << 24 | clamp(sum[index + 1] * scale) << 16
+                            | clamp(sum[index + 2] * scale) << 8 | clamp(sum[index + 3] * scale);
+                } else {
+                    canvasRow[x] = clamp(sum[index]) << 16 | clamp(sum[index + 1]) << 8 | clamp(sum[index + 2]);
+                }
+            }
+            canvas.setDataElements(0, y, canvasRow.length, 1, canvasRow);
+        }
+
+        private static int clamp(float value) {
+            int rounded = (int) (value + 0.5F);
+            return rounded < 0 ? 0 : rounded > 255 ? 255 : rounded;
+        }
+    }
+
+    private static final class BandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Supplier<Pass> passes;
+        private final int from;
+        private final int to;
+        private final int bandHeight;
+
+        BandTask(Supplier<Pass> passes, int from, int to, int bandHeight) {
+            this.passes = passes;
+            this.from = from;
+            this.to = to;
+            this.bandHeight = bandHeight;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= bandHeight) {
+                passes.get().run(from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BandTask(passes, from, middle, bandHeight),
+                        new BandTask(passes, middle, to, bandHeight));
+            }
+        }
+    }
+}
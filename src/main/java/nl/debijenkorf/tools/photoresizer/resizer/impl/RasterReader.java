@@ -0,0 +1,332 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads runs of pixels from a {@link BufferedImage} as packed {@code 0xRRGGBB} values.
+ *
+ * For the common layouts (packed int, interleaved or banded bytes and 8 bit single band images) the values are read
+ * straight from the {@link DataBuffer}, so no objects are allocated per pixel. Any other layout falls back to
+ * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}. The returned values are equal to the color part of
+ * {@link BufferedImage#getRGB(int, int)}, so the edge detection sees the same colors as before. Only the renderer
+ * reads gray images as sRGB gray levels, like Java2D draws them, instead of the linear gray {@code getRGB} makes of
+ * them, see {@link #of(BufferedImage, boolean)}.
+ *
+ * @author Maarten Blokker
+ */
+abstract class RasterReader {
+
+    protected final int width;
+    protected final int height;
+
+    protected RasterReader(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates the fastest reader that supports the layout of the given image, returning the colors of
+     * {@link BufferedImage#getRGB(int, int)}.
+     *
+     * @param image image to read from
+     * @return a reader for the image
+     */
+    static RasterReader of(BufferedImage image) {
+        return of(image, false);
+    }
+
+    /**
+     * Creates the fastest reader that supports the layout of the given image.
+     *
+     * @param image image to read from
+     * @param grayLevels true to read the samples of opaque gray images as sRGB gray levels, false for the colors of
+     * {@link BufferedImage#getRGB(int, int)}
+     * @return a reader for the image
+     */
+    static RasterReader of(BufferedImage image, boolean grayLevels) {
+        Raster raster = image.getRaster();
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = raster.getSampleModel();
+        DataBuffer db = raster.getDataBuffer();
+
+        if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel
+                && PackedIntReader.supports((SinglePixelPackedSampleModel) sm, cm)) {
+            return new PackedIntReader(image);
+        }
+        if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel) {
+            if (sm.getNumBands() == 1 && cm.getPixelSize() == 8) {
+                return new LookupByteReader(image, grayLevels);
+            }
+            if (ComponentByteReader.supports((ComponentSampleModel) sm, cm)) {
+                return new ComponentByteReader(image);
+            }
+        }
+        return new GenericReader(image, grayLevels);
+    }
+
+    /**
+     * @param image an image
+     * @return true when the image is read straight from its data buffer, see {@link ColorNormalizer}
+     */
+    static boolean isDirect(BufferedImage image) {
+        return !(of(image) instanceof GenericReader);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Reads {@code length} pixels of row {@code y}, starting at column {@code x}.
+     *
+     * @param x first column to read
+     * @param y row to read
+     * @param length amount of pixels to read
+     * @param rgb destination, filled from index 0
+     */
+    void readRow(int x, int y, int length, int[] rgb) {
+        read(x, y, length, false, rgb);
+    }
+
+    /**
+     * Reads {@code length} pixels of column {@code x}, starting at row {@code y}.
+     *
+     * @param x column to read
+     * @param y first row to read
+     * @param length amount of pixels to read
+     * @param rgb destination, filled from index 0
+     */
+    void readColumn(int x, int y, int length, int[] rgb) {
+        read(x, y, length, true, rgb);
+    }
+
+    protected abstract void read(int x, int y, int length, boolean vertical, int[] rgb);
+
+    /**
+     * Packed int pixels (TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_INT_BGR) with 8 bit sRGB components.
+     */
+    private static final class PackedIntReader extends RasterReader {
+
+        private final int[] data;
+        private final int offset;
+        private final int scanlineStride;
+        private final int redShift;
+        private final int greenShift;
+        private final int blueShift;
+
+        PackedIntReader(BufferedImage image) {
+            super(image.getWidth(), image.getHeight());
+            Raster raster = image.getRaster();
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+            DirectColorModel cm = (DirectColorModel) image.getColorModel();
+
+            this.data = db.getData();
+            this.scanlineStride = sm.getScanlineStride();
+            this.offset = db.getOffset() + sm.getOffset(
+                    -raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY());
+            this.redShift = Integer.numberOfTrailingZeros(cm.getRedMask());
+            this.greenShift = Integer.numberOfTrailingZeros(cm.getGreenMask());
+            this.blueShift = Integer.numberOfTrailingZeros(cm.getBlueMask());
+        }
+
+        static boolean supports(SinglePixelPackedSampleModel sm, ColorModel cm) {
+            if (!(cm instanceof DirectColorModel) || cm.isAlphaPremultiplied() || !cm.getColorSpace().isCS_sRGB()) {
+                return false;
+            }
+            DirectColorModel dcm = (DirectColorModel) cm;
+            return isByteMask(dcm.getRedMask()) && isByteMask(dcm.getGreenMask()) && isByteMask(dcm.getBlueMask());
+        }
+
+        private static boolean isByteMask(int mask) {
+            return Integer.bitCount(mask) == 8 && (mask >>> Integer.numberOfTrailingZeros(mask)) == 0xFF;
+        }
+
+        @Override
+        protected void read(int x, int y, int length, boolean vertical, int[] rgb) {
+            int index = offset + y * scanlineStride + x;
+            int step = vertical ? scanlineStride : 1;
+
+            if (redShift == 16 && greenShift == 8 && blueShift == 0) {
+                for (int i = 0; i < length; i++, index += step) {
+                    rgb[i] = data[index] & 0xFFFFFF;
+                }
+            } else {
+                for (int i = 0; i < length; i++, index += step) {
+                    int pixel = data[index];
+                    rgb[i] = ((pixel >>> redShift) & 0xFF) << 16
+                            | ((pixel >>> greenShift) & 0xFF) << 8
+                            | ((pixel >>> blueShift) & 0xFF);
+                }
+            }
+        }
+    }
+
+    /**
+     * Interleaved (TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR) or banded byte pixels with 8 bit sRGB components.
+     */
+    private static final class ComponentByteReader extends RasterReader {
+
+        private final byte[] red;
+        private final byte[] green;
+        private final byte[] blue;
+        private final int redOffset;
+        private final int greenOffset;
+        private final int blueOffset;
+        private final int pixelStride;
+        private final int scanlineStride;
+
+        ComponentByteReader(BufferedImage image) {
+            super(image.getWidth(), image.getHeight());
+            Raster raster = image.getRaster();
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+            int[] banks = sm.getBankIndices();
+            int[] bandOffsets = sm.getBandOffsets();
+            int origin = sm.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY(), 0)
+                    - bandOffsets[0];
+
+            this.pixelStride = sm.getPixelStride();
+            this.scanlineStride = sm.getScanlineStride();
+            this.red = db.getData(banks[0]);
+            this.green = db.getData(banks[1]);
+            this.blue = db.getData(banks[2]);
+            this.redOffset = db.getOffsets()[banks[0]] + origin + bandOffsets[0];
+            this.greenOffset = db.getOffsets()[banks[1]] + origin + bandOffsets[1];
+            this.blueOffset = db.getOffsets()[banks[2]] + origin + bandOffsets[2];
+        }
+
+        static boolean supports(ComponentSampleModel sm, ColorModel cm) {
+            if (!(cm instanceof ComponentColorModel) || cm.isAlphaPremultiplied() || !cm.getColorSpace().isCS_sRGB()
+                    || cm.getNumComponents() != sm.getNumBands() || sm.getNumBands() < 3) {
+                return false;
+            }
+            for (int size : cm.getComponentSize()) {
+                if (size != 8) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected void read(int x, int y, int length, boolean vertical, int[] rgb) {
+            int index = y * scanlineStride + x * pixelStride;
+            int step = vertical ? scanlineStride : pixelStride;
+
+            for (int i = 0; i < length; i++, index += step) {
+                rgb[i] = (red[redOffset + index] & 0xFF) << 16
+                        | (green[greenOffset + index] & 0xFF) << 8
+                        | (blue[blueOffset + index] & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Single band 8 bit pixels (TYPE_BYTE_GRAY, TYPE_BYTE_INDEXED). The color of every possible sample is resolved
+     * once, through the color model, or as a gray level for gray images when gray levels are read.
+     */
+    private static final class LookupByteReader extends RasterReader {
+
+        private final byte[] data;
+        private final int offset;
+        private final int pixelStride;
+        private final int scanlineStride;
+        private final int[] lookup = new int[256];
+
+        LookupByteReader(BufferedImage image, boolean grayLevels) {
+            super(image.getWidth(), image.getHeight());
+            Raster raster = image.getRaster();
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+
+            this.data = db.getData(sm.getBankIndices()[0]);
+            this.offset = db.getOffsets()[sm.getBankIndices()[0]]
+                    + sm.getOffset(-raster.getSampleModelTranslateX(), -raster.getSampleModelTranslateY(), 0);
+            this.pixelStride = sm.getPixelStride();
+            this.scanlineStride = sm.getScanlineStride();
+
+            ColorModel cm = image.getColorModel();
+            boolean gray = grayLevels && cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+            byte[] sample = new byte[1];
+            for (int i = 0; i < lookup.length; i++) {
+                sample[0] = (byte) i;
+                lookup[i] = gray ? i * 0x010101 : cm.getRGB(sample) & 0xFFFFFF;
+            }
+        }
+
+        @Override
+        protected void read(int x, int y, int length, boolean vertical, int[] rgb) {
+            int index = offset + y * scanlineStride + x * pixelStride;
+            int step = vertical ? scanlineStride : pixelStride;
+
+            for (int i = 0; i < length; i++, index += step) {
+                rgb[i] = lookup[data[index] & 0xFF];
+            }
+        }
+    }
+
+    /**
+     * Any other layout, read through the color model one row or column at a time. When gray levels are read, opaque
+     * gray images with other sample sizes, like TYPE_USHORT_GRAY, are read from their samples and scaled instead.
+     */
+    private static final class GenericReader extends RasterReader {
+
+        private final BufferedImage image;
+        // largest sample of a gray image read as gray levels, 0 for other images
+        private final int maxSample;
+
+        GenericReader(BufferedImage image, boolean grayLevels) {
+            super(image.getWidth(), image.getHeight());
+            this.image = image;
+
+            ColorModel cm = image.getColorModel();
+            boolean gray = grayLevels && cm.getColorSpace().getType() == ColorSpace.TYPE_GRAY
+                    && cm.getNumComponents() == 1
+                    && (cm.getTransferType() == DataBuffer.TYPE_BYTE || cm.getTransferType() == DataBuffer.TYPE_USHORT);
+            this.maxSample = gray ? (1 << cm.getComponentSize(0)) - 1 : 0;
+        }
+
+        @Override
+        protected void read(int x, int y, int length, boolean vertical, int[] rgb) {
+            if (maxSample > 0) {
+                readGray(x, y, length, vertical, rgb);
+                return;
+            }
+            if (vertical) {
+                image.getRGB(x, y, 1, length, rgb, 0, 1);
+            } else {
+                image.getRGB(x, y, length, 1, rgb, 0, length);
+            }
+            for (int i = 0; i < length; i++) {
+                rgb[i] &= 0xFFFFFF;
+            }
+        }
+
+        private void readGray(int x, int y, int length, boolean vertical, int[] rgb) {
+            if (vertical) {
+                image.getRaster().getSamples(x, y, 1, length, 0, rgb);
+            } else {
+                image.getRaster().getSamples(x, y, length, 1, 0, rgb);
+            }
+            for (int i = 0; i < length; i++) {
+                rgb[i] = (rgb[i] * 255 + maxSample / 2) / maxSample * 0x010101;
+            }
+        }
+    }
+}
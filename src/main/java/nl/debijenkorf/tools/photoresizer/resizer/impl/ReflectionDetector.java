@@ -0,0 +1,190 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.util.Arrays;
+
+/**
+ * Finds the fold in the bottom half of an image at which the outline of the product is mirrored, the transition from
+ * the product to its reflection on the floor.
+ *
+ * A fold is scored by walking away from it on both sides at once and comparing the left and the right edge of every
+ * pair of mirrored rows. Edges that differ less than 1/200, 1/100 or 1/50 of the width add 4, 2 or 1 to a count, and
+ * the movement of those edges between matching rows below the fold adds to a sum. The walk stops at the first row
+ * without edges, the score is {@code count * sum / (width / 50)}.
+ *
+ * Scoring every fold like this takes time quadratic in the height of the image. Instead an upper bound of every score
+ * is taken from prefix sums: a fold with {@code k} pairs counts at most {@code 8k}, and the edges cannot move more than
+ * their total variation over those {@code k} rows. Folds are scored from the highest bound down, until no bound can
+ * beat the best score anymore, which gives the same result as scoring them all.
+ *
+ * Edges are indexed from the bottom row of the image upwards, 0 means the row has no non background pixels.
+ *
+ * @author Maarten Blokker
+ */
+final class ReflectionDetector {
+
+    private final int width;
+    private final int[] left;
+    private final int[] right;
+
+    /**
+     * @param width width of the image
+     * @param left first non background column of the rows from the bottom up, 0 for none
+     * @param right last non background column of the rows from the bottom up, 0 for none
+     */
+    ReflectionDetector(int width, int[] left, int[] right) {
+        this.width = width;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Takes the edges of the bottom half of the image from an existing projection.
+     */
+    static ReflectionDetector of(EdgeProjection projection) {
+        int height = projection.getHeight();
+        int[] left = new int[height / 2];
+        int[] right = new int[height / 2];
+        for (int i = 0; i < left.length; i++) {
+            left[i] = Math.max(0, projection.getRowFirst(height - 1 - i));
+            right[i] = Math.max(0, projection.getRowLast(height - 1 - i));
+        }
+        return new ReflectionDetector(projection.getWidth(), left, right);
+    }
+
+    /**
+     * Scans the edges of the bottom half of the image.
+     */
+    static ReflectionDetector scan(RasterReader reader, int tolerance) {
+        DistanceKernel kernel = DistanceKernel.get();
+        int width = reader.getWidth();
+        int height = reader.getHeight();
+        int[] distances = new int[width];
+        int[] left = new int[height / 2];
+        int[] right = new int[height / 2];
+        for (int i = 0; i < left.length; i++) {
+            EdgeProjection.readDistances(reader, height - 1 - i, distances);
+            int first = kernel.firstAbove(distances, width, tolerance);
+            if (first != EdgeProjection.NONE) {
+                left[i] = first;
+                right[i] = kernel.lastAbove(distances, width, tolerance);
+            }
+        }
+        return new ReflectionDetector(width, left, right);
+    }
+
+    /**
+     * Searches the most probable fold. The fold with index {@code i} lies between the rows {@code i} and {@code i + 1}
+     * counted from the bottom, so the reflection starts at row {@code height - 1 - i} of the image.
+     *
+     * @param mostProbableReflectionCenter the fold index and its score, only replaced by a fold that scores higher.
+     * When several folds have the same score the lowest index is taken.
+     */
+    void find(int[] mostProbableReflectionCenter) {
+        int rows = left.length;
+        int divisor = width / 50;
+        if (rows < 2 || divisor == 0) {
+            return;
+        }
+
+        // consecutive rows with edges from every row down and up
+        int[] down = new int[rows];
+        int[] up = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            down[i] = hasEdges(i) ? (i > 0 ? down[i - 1] : 0) + 1 : 0;
+        }
+        for (int i = rows - 1; i >= 0; i--) {
+            up[i] = hasEdges(i) ? (i < rows - 1 ? up[i + 1] : 0) + 1 : 0;
+        }
+
+        // total variation of the left and right edge
+        long[] variation = new long[rows];
+        for (int i = 1; i < rows; i++) {
+            variation[i] = variation[i - 1] + Math.abs(left[i] - left[i - 1]) + Math.abs(right[i] - right[i - 1]);
+        }
+
+        long[] bounds = new long[rows];
+        // sorted on the highest bound and then the lowest fold, with the negated bound in the upper and the fold in the
+        // lower half of a key. Bounds beyond the int range exceed every score, capping them does not change the result.
+        long[] keys = new long[rows - 1];
+        for (int fold = 1; fold < rows; fold++) {
+            int pairs = Math.min(Math.min(fold, rows - 1 - fold), Math.min(down[fold - 1], up[fold]));
+            if (pairs > 0) {
+                bounds[fold] = 8L * pairs * (variation[fold - 1] - variation[fold - pairs]) / divisor;
+            }
+            keys[fold - 1] = -Math.min(bounds[fold], Integer.MAX_VALUE) << 32 | fold;
+        }
+        Arrays.sort(keys);
+
+        int bestFold = -1;
+        int bestScore = mostProbableReflectionCenter[1];
+        for (long key : keys) {
+            int fold = (int) key;
+            if (bounds[fold] < bestScore) {
+                break;
+            }
+            if (bounds[fold] == bestScore && (bestFold == -1 || fold > bestFold)) {
+                continue;
+            }
+            int score = score(fold, rows, divisor);
+            if (score > bestScore || score == bestScore && bestFold != -1 && fold < bestFold) {
+                bestFold = fold;
+                bestScore = score;
+            }
+        }
+
+        if (bestFold != -1) {
+            mostProbableReflectionCenter[0] = bestFold - 1;
+            mostProbableReflectionCenter[1] = bestScore;
+        }
+    }
+
+    private boolean hasEdges(int row) {
+        return left[row] != 0 && right[row] != 0;
+    }
+
+    private int score(int fold, int rows, int divisor) {
+        int countLeft = 0;
+        int countRight = 0;
+        long sumDeltaLeft = 0;
+        long sumDeltaRight = 0;
+        int previousLeft = -1;
+        int previousRight = -1;
+
+        for (int y1 = fold - 1, y2 = fold; y1 >= 0 && y2 < rows - 1; y1--, y2++) {
+            if (!hasEdges(y1) || !hasEdges(y2)) {
+                break;
+            }
+
+            int leftWeight = weight(Math.abs(left[y2] - left[y1]));
+            if (leftWeight > 0) {
+                if (previousLeft != -1) {
+                    sumDeltaLeft += Math.abs(previousLeft - left[y1]);
+                }
+                previousLeft = left[y1];
+                countLeft += leftWeight;
+            }
+
+            int rightWeight = weight(Math.abs(right[y2] - right[y1]));
+            if (rightWeight > 0) {
+                if (previousRight != -1) {
+                    sumDeltaRight += Math.abs(previousRight - right[y1]);
+                }
+                previousRight = right[y1];
+                countRight += rightWeight;
+            }
+        }
+        long score = (countLeft + countRight) * (sumDeltaLeft + sumDeltaRight) / divisor;
+        return (int) Math.min(Integer.MAX_VALUE, score);
+    }
+
+    private int weight(int difference) {
+        if (difference < width / 200) {
+            return 4;
+        } else if (difference < width / 100) {
+            return 2;
+        } else if (difference < width / 50) {
+            return 1;
+        }
+        return 0;
+    }
+}
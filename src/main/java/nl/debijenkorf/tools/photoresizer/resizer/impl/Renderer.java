@@ -0,0 +1,26 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
+import nl.debijenkorf.tools.photoresizer.resizer.ScalingQuality;
+
+/**
+ * Renders an {@link AlignmentPlan} into a canvas, see {@link PlanRenderer#render}.
+ *
+ * @author Maarten Blokker
+ */
+@FunctionalInterface
+interface Renderer {
+
+    /**
+     * @param source the source image
+     * @param plan scaled plan, see {@link AlignmentPlan#fit(int, int)}
+     * @param fillColor color of the padding
+     * @param quality the scaling quality
+     * @param parallel true to render in parallel bands
+     * @return the canvas
+     */
+    BufferedImage render(RowSource source, AlignmentPlan plan, Color fillColor, ScalingQuality quality,
+            boolean parallel);
+}
@@ -0,0 +1,151 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
+import nl.debijenkorf.tools.photoresizer.resizer.ScalingQuality;
+
+/**
+ * Renders one decoded image at several sizes as a progressive downscale chain. Renditions are rendered largest first,
+ * and every rendition is resampled from the smallest earlier rendition that contains its whole padded region at a
+ * higher resolution. Only renditions that need image data outside of every earlier rendition, for instance because
+ * they have narrower margins, are rendered from the source.
+ *
+ * @author Maarten Blokker
+ */
+final class RenditionChain {
+
+    /**
+     * How far, in pixels of a rendition, a region may stick out of it and still be taken from it. The part that sticks
+     * out is filled.
+     */
+    private static final double TOLERANCE = 1;
+
+    /**
+     * Minimum downscale factor from one rendition to the next. Many small steps would blur the smallest renditions.
+     */
+    private static final double MIN_STEP = 2;
+
+    private final Renderer renderer;
+    private final BufferedImage source;
+    private final Color fillColor;
+    private final BooleanSupplier parallel;
+    private final List<Rendition> renditions = new ArrayList<>();
+
+    /**
+     * @param renderer renders every step
+     * @param source the decoded image
+     * @param fillColor color of the padding
+     * @param parallel asked before every step, true to render it in parallel bands
+     */
+    RenditionChain(Renderer renderer, BufferedImage source, Color fillColor, BooleanSupplier parallel) {
+        this.renderer = renderer;
+        this.source = source;
+        this.fillColor = fillColor;
+        this.parallel = parallel;
+    }
+
+    /**
+     * @param plan unscaled plan relative to the source
+     * @param width width of the target
+     * @param height height of the target
+     * @param quality scaling quality of the rendition
+     * @return the rendition, with the size of the canvas of the plan fitted to the target
+     */
+    BufferedImage render(AlignmentPlan plan, int width, int height, ScalingQuality quality) {
+        AlignmentPlan fitted = plan.fit(width, height);
+        boolean parallel = this.parallel.getAsBoolean();
+
+        BufferedImage image = null;
+        for (int i = renditions.size() - 1; i >= 0 && image == null; i--) {
+            image = renditions.get(i).derive(renderer, fitted, fillColor, quality, parallel);
+        }
+        if (image == null) {
+            image = renderer.render(RowSource.of(source), fitted, fillColor, quality, parallel);
+        }
+
+        renditions.add(new Rendition(fitted, image, quality));
+        return image;
+    }
+
+    private static final class Rendition {
+
+        private final AlignmentPlan plan;
+        private final BufferedImage image;
+        private final ScalingQuality quality;
+        private final double scaleX;
+        private final double scaleY;
+
+        Rendition(AlignmentPlan plan, BufferedImage image, ScalingQuality quality) {
+            this.plan = plan;
+            this.image = image;
+            this.quality = quality;
+            this.scaleX = (double) plan.getScaledWidth() / plan.getPaddedWidth();
+            this.scaleY = (double) plan.getScaledHeight() / plan.getPaddedHeight();
+        }
+
+        /**
+         * @param target scaled plan relative to the source
+         * @return the target rendered from this rendition, or null when this rendition does not contain it or has a
+         * lower quality
+         */
+        BufferedImage derive(Renderer renderer, AlignmentPlan target, Color fillColor, ScalingQuality quality,
+                boolean parallel) {
+            // the qualities are declared from low to high
+            if (this.quality.compareTo(quality) < 0) {
+                return null;
+            }
+            double targetScaleX = (double) target.getScaledWidth() / target.getPaddedWidth();
+            double targetScaleY = (double) target.getScaledHeight() / target.getPaddedHeight();
+            if (targetScaleX * MIN_STEP > scaleX || targetScaleY * MIN_STEP > scaleY) {
+                return null;
+            }
+
+            // the padded region of the target in pixels of this rendition
+            double x0 = (originX(target) - originX(plan)) * scaleX;
+            double y0 = (originY(target) - originY(plan)) * scaleY;
+            double x1 = x0 + target.getPaddedWidth() * scaleX;
+            double y1 = y0 + target.getPaddedHeight() * scaleY;
+            if (x0 < -TOLERANCE || y0 < -TOLERANCE
+                    || x1 > image.getWidth() + TOLERANCE || y1 > image.getHeight() + TOLERANCE) {
+                return null;
+            }
+
+            int left = (int) Math.round(x0);
+            int top = (int) Math.round(y0);
+            int right = (int) Math.round(x1);
+            int bottom = (int) Math.round(y1);
+            int sourceX = Math.max(0, left);
+            int sourceY = Math.max(0, top);
+            int sourceWidth = Math.min(image.getWidth(), right) - sourceX;
+            int sourceHeight = Math.min(image.getHeight(), bottom) - sourceY;
+            if (sourceWidth <= 0 || sourceHeight <= 0) {
+                return null;
+            }
+
+            if (sourceX == 0 && sourceY == 0 && left == 0 && top == 0
+                    && right == image.getWidth() && bottom == image.getHeight()
+                    && target.getScaledWidth() == image.getWidth() && target.getScaledHeight() == image.getHeight()) {
+                // same geometry
+                return image;
+            }
+
+            AlignmentPlan relative = new AlignmentPlan(sourceX, sourceY, sourceWidth, sourceHeight,
+                    sourceY - top, bottom - sourceY - sourceHeight, sourceX - left, right - sourceX - sourceWidth)
+                    .scale(target.getScaledWidth(), target.getScaledHeight(),
+                            target.getCanvasWidth(), target.getCanvasHeight());
+            return renderer.render(RowSource.of(image), relative, fillColor, quality, parallel);
+        }
+
+        private static int originX(AlignmentPlan plan) {
+            return plan.getSourceX() - plan.getLeftPadding();
+        }
+
+        private static int originY(AlignmentPlan plan) {
+            return plan.getSourceY() - plan.getTopPadding();
+        }
+    }
+}
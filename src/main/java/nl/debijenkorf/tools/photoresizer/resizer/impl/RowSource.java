@@ -0,0 +1,102 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * The rows of a decoded source, as read by the {@link PlanRenderer}.
+ *
+ * @author Maarten Blokker
+ */
+interface RowSource {
+
+    /**
+     * @param image a decoded image
+     * @return the rows of the image
+     */
+    static RowSource of(BufferedImage image) {
+        return new ImageRows(image);
+    }
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * @return true when the rows have alpha
+     */
+    boolean hasAlpha();
+
+    /**
+     * @return true when the rows are gray, the red, green and blue of every pixel are the same
+     */
+    boolean isGray();
+
+    /**
+     * @return true when rows can be read in any order and by several threads, otherwise they must be read top to
+     * bottom by a single thread
+     */
+    boolean isRandomAccess();
+
+    /**
+     * Reads {@code length} pixels of row {@code y}, starting at column {@code x}, as packed {@code 0xAARRGGBB} values.
+     * Rows without alpha may leave the alpha bits 0.
+     *
+     * @param x first column to read
+     * @param y row to read
+     * @param length amount of pixels to read
+     * @param argb destination, filled from index 0
+     */
+    void readRow(int x, int y, int length, int[] argb);
+
+    /**
+     * The rows of a decoded image. Opaque images are read through a {@link RasterReader} that reads gray images as
+     * gray levels, TYPE_INT_ARGB images are copied from their raster and other images with alpha are read through the
+     * color model, see {@link ColorNormalizer}.
+     */
+    final class ImageRows implements RowSource {
+
+        private final BufferedImage image;
+        private final RasterReader reader;
+
+        ImageRows(BufferedImage image) {
+            this.image = image;
+            this.reader = image.getTransparency() == BufferedImage.OPAQUE ? RasterReader.of(image, true) : null;
+        }
+
+        @Override
+        public int getWidth() {
+            return image.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return image.getHeight();
+        }
+
+        @Override
+        public boolean hasAlpha() {
+            return reader == null;
+        }
+
+        @Override
+        public boolean isGray() {
+            return image.getType() == BufferedImage.TYPE_BYTE_GRAY;
+        }
+
+        @Override
+        public boolean isRandomAccess() {
+            return true;
+        }
+
+        @Override
+        public void readRow(int x, int y, int length, int[] argb) {
+            if (reader != null) {
+                reader.readRow(x, y, length, argb);
+            } else if (image.getType() == BufferedImage.TYPE_INT_ARGB) {
+                image.getRaster().getDataElements(x, y, length, 1, argb);
+            } else {
+                image.getRGB(x, y, length, 1, argb, 0, length);
+            }
+        }
+    }
+}
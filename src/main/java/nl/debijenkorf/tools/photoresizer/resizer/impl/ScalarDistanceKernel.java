@@ -0,0 +1,61 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+/**
+ * Plain Java implementation of the {@link DistanceKernel}.
+ *
+ * The cut test is done in integer arithmetic: with {@code q = (above + above2) / 2}, the bottom sweep cuts when
+ * {@code (current + below) / 2 - q < -3 * tolerance}, which is the same as
+ * {@code current + below + 6 * tolerance < 2q}.
+ *
+ * @author Maarten Blokker
+ */
+final class ScalarDistanceKernel implements DistanceKernel {
+
+    static final ScalarDistanceKernel INSTANCE = new ScalarDistanceKernel();
+
+    private ScalarDistanceKernel() {
+    }
+
+    @Override
+    public void distances(int[] rgb, int[] distances, int length) {
+        for (int i = 0; i < length; i++) {
+            int pixel = rgb[i];
+            int red = 255 - ((pixel >> 16) & 0xFF);
+            int green = 255 - ((pixel >> 8) & 0xFF);
+            int blue = 255 - (pixel & 0xFF);
+            distances[i] = red * red + green * green + blue * blue;
+        }
+    }
+
+    @Override
+    public int firstAbove(int[] distances, int length, int threshold) {
+        for (int i = 0; i < length; i++) {
+            if (distances[i] > threshold) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastAbove(int[] distances, int length, int threshold) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (distances[i] > threshold) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean isCut(int[] above2, int[] above, int[] current, int[] below, int from, int to, int tolerance) {
+        int margin = Math.max(0, tolerance * 6);
+        for (int x = from; x < to; x++) {
+            int top = ((above[x] + above2[x]) >> 1) << 1;
+            if (current[x] + below[x] + margin < top) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -2,15 +2,23 @@ package nl.debijenkorf.tools.photoresizer.resizer.impl;
 
 import java.awt.*;
 import java.awt.image.*;
+import java.util.ArrayList;
+import java.util.List;
 import nl.debijenkorf.tools.photoresizer.Configuration;
+import nl.debijenkorf.tools.photoresizer.resizer.AlignmentPlan;
 import nl.debijenkorf.tools.photoresizer.resizer.ImageAligner;
+import nl.debijenkorf.tools.photoresizer.resizer.ImageResizerService.ImageProfile;
 import nl.debijenkorf.tools.photoresizer.resizer.Preset.VAlign;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Created by Daniel on 14/07/15.
  */
 public class SmartImageAligner implements ImageAligner {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SmartImageAligner.class);
+
     @Override
     public BufferedImage align(BufferedImage image,
             double canvasAspectRatio,
@@ -20,14 +28,93 @@ public class SmartImageAligner implements ImageAligner {
             Color fillColor,
             VAlign vAlign) {
 
+        Margin relativeMargin = findRelativeMargin(image, canvasAspectRatio, bottomPercentage, minTopPercentage,
+                minLeftRightPercentage, vAlign);
+        if (relativeMargin == null) {
+            return image;
+        }
+
+        // cut or pad image depending on relativeMargin calculated value
+        BufferedImage alignedImage = trimAndPad(image, relativeMargin, fillColor);
+
+        return alignedImage;
+    }
+
+    @Override
+    public AlignmentPlan plan(BufferedImage image,
+            double canvasAspectRatio,
+            int bottomPercentage,
+            int minTopPercentage,
+            int minLeftRightPercentage,
+            VAlign vAlign) {
+
+        Margin relativeMargin = findRelativeMargin(image, canvasAspectRatio, bottomPercentage, minTopPercentage,
+                minLeftRightPercentage, vAlign);
+        return toPlan(image, relativeMargin);
+    }
+
+    @Override
+    public List<AlignmentPlan> plan(BufferedImage image, List<ImageProfile> profiles) {
         ImageEdges imageEdges = findImageEdges(image, 300);
 
+        List<AlignmentPlan> plans = new ArrayList<>(profiles.size());
+        for (ImageProfile profile : profiles) {
+            if (profile.width <= 0 || profile.height <= 0) {
+                throw new IllegalArgumentException("Profile has no size: " + profile);
+            }
+            Margin relativeMargin = findRelativeMargin(image, imageEdges, (double) profile.width / profile.height,
+                    profile.minBottomMarginPercent, profile.minTopMarginPercent, profile.minLeftRightPercent,
+                    VAlign.valueOf(profile.vAlign.name()));
+            plans.add(toPlan(image, relativeMargin));
+        }
+        return plans;
+    }
+
+    private AlignmentPlan toPlan(BufferedImage image, Margin relativeMargin) {
+        if (relativeMargin == null) {
+            return AlignmentPlan.of(image);
+        }
+
+        // same as trimAndPad: negative margins are cut from the image, positive margins are padded
+        int cropTop = Math.max(0, -relativeMargin.getTopMargin());
+        int cropBottom = Math.max(0, -relativeMargin.getBottomMargin());
+        int cropLeft = Math.max(0, -relativeMargin.getLeftMargin());
+        int cropRight = Math.max(0, -relativeMargin.getRightMargin());
+
+        return new AlignmentPlan(cropLeft, cropTop,
+                image.getWidth() - cropLeft - cropRight, image.getHeight() - cropTop - cropBottom,
+                Math.max(0, relativeMargin.getTopMargin()), Math.max(0, relativeMargin.getBottomMargin()),
+                Math.max(0, relativeMargin.getLeftMargin()), Math.max(0, relativeMargin.getRightMargin()));
+    }
+
+    /**
+     * @return how much to pad (positive) or cut (negative) on every side of the image, or null when the image should
+     * not be aligned
+     */
+    private Margin findRelativeMargin(BufferedImage image,
+            double canvasAspectRatio,
+            int bottomPercentage,
+            int minTopPercentage,
+            int minLeftRightPercentage,
+            VAlign vAlign) {
+        return findRelativeMargin(image, findImageEdges(image, 300), canvasAspectRatio, bottomPercentage,
+                minTopPercentage, minLeftRightPercentage, vAlign);
+    }
+
+    private Margin findRelativeMargin(BufferedImage image,
+            ImageEdges imageEdges,
+            double canvasAspectRatio,
+            int bottomPercentage,
+            int minTopPercentage,
+            int minLeftRightPercentage,
+            VAlign vAlign) {
+
         // Do not align the image if either top, bottom, left or right of the non-white image
         // touch the edge of the canvas
         if (imageEdges.getLeftCoordinate() == 0 || imageEdges.getTopCoordinate() == 0
                 || imageEdges.getRightCoordinate() == image.getWidth() - 1
                 || imageEdges.getBottomCoordinate() == image.getHeight() - 1) {
-            return image;
+            return null;
         }
 
         // calculate how much we need to pad around "trimmed" image
@@ -41,13 +128,7 @@ public class SmartImageAligner implements ImageAligner {
                 vAlign);
 
         // calculate how much we need to pad or cut relative to original image
-        Margin relativeMargin = calculateRelativeMargin(imageEdges, margin,
-                image.getWidth(), image.getHeight());
-
-        // cut or pad image depending on relativeMargin calculated value
-        BufferedImage alignedImage = trimAndPad(image, relativeMargin, fillColor);
-
-        return alignedImage;
+        return calculateRelativeMargin(imageEdges, margin, image.getWidth(), image.getHeight());
     }
 
     protected Margin calculateRelativeMargin(ImageEdges imageEdges, Margin margin,
@@ -74,223 +155,99 @@ public class SmartImageAligner implements ImageAligner {
     }
 
     protected ImageEdges findImageEdges(BufferedImage image, int tolerance) {
-        int leftMostPixel = 0,
-                topMostPixel = 0,
-                rightMostPixel = image.getWidth() - 1,
-                bottomMostPixel = image.getHeight() - 1;
-
-        leftToRightSweep:
-        for (int x = 0; x < image.getWidth(); x++) {
-            for (int y = 0; y < image.getHeight(); y++) {
-                int argb = image.getRGB(x, y);
-                double distance = colorDistance(new Color(argb, true), Color.WHITE);
-                if (distance > tolerance) {
-                    leftMostPixel = x;
-                    break leftToRightSweep;
+        boolean debug = Configuration.isDebug();
+        int maxError = Configuration.getEdgeMaxError();
+        RasterReader reader = RasterReader.of(image);
+
+        ImageEdges edges;
+        EdgeProjection projection = null;
+        if (maxError > 0) {
+            edges = new CoarseToFineEdgeFinder(maxError).find(reader, tolerance);
+            if (Configuration.isEdgeValidation()) {
+                ImageEdges exactEdges = toImageEdges(EdgeProjection.scan(reader, tolerance));
+                int difference = CoarseToFineEdgeFinder.difference(edges, exactEdges);
+                if (difference > maxError) {
+                    LOG.warn("Edges differ {}px from the exact scan: edges={}, exact={}", difference, edges,
+                            exactEdges);
                 }
             }
+        } else {
+            projection = EdgeProjection.scan(reader, tolerance);
+            edges = toImageEdges(projection);
         }
 
-        rightToLeftSweep:
-        for (int x = image.getWidth() - 1; x >= leftMostPixel; x--) {
-            for (int y = 0; y < image.getHeight(); y++) {
-                int argb = image.getRGB(x, y);
-                double distance = colorDistance(new Color(argb, true), Color.WHITE);
-                if (distance > tolerance) {
-                    rightMostPixel = x;
-                    break rightToLeftSweep;
-                }
-            }
+        if (Configuration.isReflectionDetection()) {
+            ReflectionDetector detector = projection != null
+                    ? ReflectionDetector.of(projection)
+                    : ReflectionDetector.scan(reader, tolerance);
+            applyReflection(edges, detector, image.getHeight());
         }
 
-        topToBottomSweep:
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                int argb = image.getRGB(x, y);
-                double distance = colorDistance(new Color(argb, true), Color.WHITE);
-                if (distance > tolerance) {
-                    topMostPixel = y;
-                    break topToBottomSweep;
-                }
-            }
-        }
-
-        int bottomMostPixelFallback = image.getHeight() - 1;
-        bottomToTopSweep:
-        for (int y = image.getHeight() - 1; y >= topMostPixel; y--) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                int argb = image.getRGB(x, y);
-                Color color = new Color(argb, true);
-                Color topPxClr = y == 0 ? Color.WHITE : new Color(image.getRGB(x, y - 1));
-                Color top2PxClr = y < 2 ? Color.WHITE : new Color(image.getRGB(x, y - 2));
-                Color bottomPxClr = y == image.getHeight() - 1 ? Color.WHITE : new Color(image.getRGB(x, y + 1));
-                double distanceToWhite = colorDistance(color, Color.WHITE);
-                double distanceToTop = (distanceToWhite + colorDistance(bottomPxClr, Color.WHITE)) / 2
-                        - (colorDistance(topPxClr, Color.WHITE) + colorDistance(top2PxClr, Color.WHITE)) / 2;
-                if (distanceToTop < 0 && Math.abs(distanceToTop) > tolerance * 3) {
-                    bottomMostPixel = y - 1;
-                    break bottomToTopSweep;
-                }
-
-                if (bottomMostPixelFallback == image.getHeight() - 1) {
-                    if (distanceToWhite > tolerance) {
-                        bottomMostPixelFallback = y;
-                    }
+        // marking for debuggin
+        if (debug) {
+            // mark bottom within tolerance
+            int bottomMostPixel = edges.getBottomCoordinate();
+            int[] row = new int[image.getWidth()];
+            reader.readRow(0, bottomMostPixel, row.length, row);
+            for (int x = 0; x < row.length; x++) {
+                if (distanceToWhite(row[x]) > tolerance) {
+                    image.setRGB(x, bottomMostPixel, Color.BLUE.getRGB());
                 }
             }
-        }
-        if (bottomMostPixel == image.getHeight() - 1) {
-            bottomMostPixel = bottomMostPixelFallback;
-        }
 
-        // mark bottom within tolerance
-        int coloredCount = 0;
-        for (int x1 = 0; x1 < image.getWidth(); x1++) {
-            int argb = image.getRGB(x1, bottomMostPixel);
-            Color color = new Color(argb, true);
-            int distance = colorDistance(color, Color.WHITE);
-            if (distance > tolerance) {
-                if (Configuration.isDebug()) {
-                    image.setRGB(x1, bottomMostPixel, Color.BLUE.getRGB());
-                }
-                coloredCount++;
+            drawH(image, bottomMostPixel, Color.ORANGE);
+            drawH(image, edges.getTopCoordinate(), Color.PINK);
+            drawV(image, edges.getLeftCoordinate(), Color.GREEN);
+            drawV(image, edges.getRightCoordinate(), Color.BLUE);
+            if (edges.getReflectionCoordinate() != EdgeProjection.NONE) {
+                drawH(image, edges.getReflectionCoordinate(), Color.RED);
             }
         }
 
-        // marking for debuggin
-        if (Configuration.isDebug()) {
-            drawH(image, bottomMostPixel, Color.ORANGE);
-            drawH(image, topMostPixel, Color.PINK);
-            drawV(image, leftMostPixel, Color.GREEN);
-            drawV(image, rightMostPixel, Color.BLUE);
-        }
+        return edges;
+    }
 
+    private ImageEdges toImageEdges(EdgeProjection projection) {
         ImageEdges edges = new ImageEdges();
-        edges.setBottomCoordinate(bottomMostPixel);
-        edges.setLeftCoordinate(leftMostPixel);
-        edges.setRightCoordinate(rightMostPixel);
-        edges.setTopCoordinate(topMostPixel);
+        edges.setBottomCoordinate(projection.getBottom());
+        edges.setLeftCoordinate(projection.getLeft());
+        edges.setRightCoordinate(projection.getRight());
+        edges.setTopCoordinate(projection.getTop());
 
         return edges;
     }
 
-    protected void findMostProbableReflectionCenter(BufferedImage image, int tolerance, int[] mostProbableReflectionCenter) {
-        // build index array from bottom of image to top
-        int[][] leftEdges = new int[image.getHeight() / 2][1];
-        int[][] rightEdges = new int[image.getHeight() / 2][1];
-
-        for (int y = image.getHeight() / 2; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                int argb = image.getRGB(x, y);
-                double distance = colorDistance(new Color(argb, true), Color.WHITE);
-                if (distance > tolerance) {
-                    if (Configuration.isDebug()) {
-                        image.setRGB(x, y, Color.RED.getRGB());
-                    }
-                    leftEdges[image.getHeight() - 1 - y][0] = x;
-                    break;
-                }
-            }
-
-            for (int x = image.getWidth() - 1; x >= 0; x--) {
-                int argb = image.getRGB(x, y);
-                double distance = colorDistance(new Color(argb, true), Color.WHITE);
-                if (distance > tolerance) {
-                    if (Configuration.isDebug()) {
-                        image.setRGB(x, y, Color.RED.getRGB());
-                    }
-                    rightEdges[image.getHeight() - 1 - y][0] = x;
-                    break;
-                }
-            }
+    /**
+     * Stores the most probable reflection in the edges, and moves the bottom edge up to the row above it when the
+     * reflection starts within the product.
+     */
+    private void applyReflection(ImageEdges edges, ReflectionDetector detector, int height) {
+        int[] mostProbableReflectionCenter = {EdgeProjection.NONE, Configuration.getReflectionMinScore()};
+        detector.find(mostProbableReflectionCenter);
+        if (mostProbableReflectionCenter[0] == EdgeProjection.NONE) {
+            return;
         }
 
-        // sweep-fold to calculate matching probability
-        int[] leftRightProbability = new int[leftEdges.length - 1];
-        for (int foldPoint = 1; foldPoint < leftEdges.length; foldPoint++) {
-            int index = foldPoint - 1;
-            leftRightProbability[index] = 0;
-
-            int countLeft = 0;
-            int countRight = 0;
-            int sumDeltaLeft = 0;
-            int sumDeltaRight = 0;
-            int prefYL1Val = -1;
-            int prefYR1Val = -1;
-
-            for (int y1 = foldPoint - 1, y2 = foldPoint; y1 >= 0 && y2 < leftEdges.length - 1; y1--, y2++) {
-                int yL1Val = leftEdges[y1][0];
-                if (yL1Val == 0) {
-                    break;
-                }
-                int yL2Val = leftEdges[y2][0];
-                if (yL2Val == 0) {
-                    break;
-                }
-
-                int yR1Val = rightEdges[y1][0];
-                if (yR1Val == 0) {
-                    break;
-                }
-                int yR2Val = rightEdges[y2][0];
-                if (yR2Val == 0) {
-                    break;
-                }
-
-                int leftDiff = Math.abs(yL2Val - yL1Val);
-                if (leftDiff < image.getWidth() / 200) {
-                    if (prefYL1Val != -1) {
-                        sumDeltaLeft += Math.abs(prefYL1Val - yL1Val);
-                    }
-                    prefYL1Val = yL1Val;
-                    countLeft += 4;
-                } else if (leftDiff < image.getWidth() / 100) {
-                    if (prefYL1Val != -1) {
-                        sumDeltaLeft += Math.abs(prefYL1Val - yL1Val);
-                    }
-                    prefYL1Val = yL1Val;
-                    countLeft += 2;
-                } else if (leftDiff < image.getWidth() / 50) {
-                    if (prefYL1Val != -1) {
-                        sumDeltaLeft += Math.abs(prefYL1Val - yL1Val);
-                    }
-                    prefYL1Val = yL1Val;
-                    countLeft++;
-                }
-
-                int rightDiff = Math.abs(yR2Val - yR1Val);
-                if (rightDiff < image.getWidth() / 200) {
-                    if (prefYR1Val != -1) {
-                        sumDeltaRight += Math.abs(prefYR1Val - yR1Val);
-                    }
-                    prefYR1Val = yR1Val;
-                    countRight += 4;
-                } else if (rightDiff < image.getWidth() / 100) {
-                    if (prefYR1Val != -1) {
-                        sumDeltaRight += Math.abs(prefYR1Val - yR1Val);
-                    }
-                    prefYR1Val = yR1Val;
-                    countRight += 2;
-                } else if (rightDiff < image.getWidth() / 50) {
-                    if (prefYR1Val != -1) {
-                        sumDeltaRight += Math.abs(prefYR1Val - yR1Val);
-                    }
-                    prefYR1Val = yR1Val;
-                    countRight++;
-                }
-            }
-            int combinedProbability = (countLeft + countRight) * (sumDeltaLeft + sumDeltaRight) / (image.getWidth() / 50);
-            if (combinedProbability > mostProbableReflectionCenter[1]) {
-                mostProbableReflectionCenter[0] = index;
-                mostProbableReflectionCenter[1] = combinedProbability;
-            }
-            leftRightProbability[index] = combinedProbability;
-            if (combinedProbability > 300) {
-                combinedProbability *= 1;
-            }
+        int reflection = height - 1 - mostProbableReflectionCenter[0];
+        edges.setReflectionCoordinate(reflection);
+        edges.setReflectionScore(mostProbableReflectionCenter[1]);
+        if (reflection > edges.getTopCoordinate() && reflection <= edges.getBottomCoordinate()) {
+            edges.setBottomCoordinate(reflection - 1);
         }
     }
 
+    /**
+     * Searches the most probable fold of a reflection in the bottom half of the image, see {@link ReflectionDetector}.
+     *
+     * @param image the image
+     * @param tolerance color distance to white above which a pixel is not background
+     * @param mostProbableReflectionCenter fold index counted from the bottom row and its score, only replaced by a fold
+     * that scores higher
+     */
+    protected void findMostProbableReflectionCenter(BufferedImage image, int tolerance, int[] mostProbableReflectionCenter) {
+        ReflectionDetector.scan(RasterReader.of(image), tolerance).find(mostProbableReflectionCenter);
+    }
+
     private void drawH(BufferedImage image, int y, Color color) {
         for (int x = 0; x < image.getWidth(); x++) {
             image.setRGB(x, y, color.getRGB() * image.getRGB(x, y));
@@ -303,6 +260,16 @@ public class SmartImageAligner implements ImageAligner {
         }
     }
 
+    /**
+     * Same as {@link #colorDistance(Color, Color)} against {@link Color#WHITE}, for a packed RGB value.
+     */
+    protected static int distanceToWhite(int rgb) {
+        int red = 255 - ((rgb >> 16) & 0xFF);
+        int green = 255 - ((rgb >> 8) & 0xFF);
+        int blue = 255 - (rgb & 0xFF);
+        return red * red + green * green + blue * blue;
+    }
+
     protected int colorDistance(Color color1, Color color2) {
         return (color1.getRed() - color2.getRed()) * (color1.getRed() - color2.getRed())
                 + (color1.getGreen() - color2.getGreen()) * (color1.getGreen() - color2.getGreen())
@@ -388,6 +355,8 @@ public class SmartImageAligner implements ImageAligner {
         private int rightCoordinate;
         private int topCoordinate;
         private int bottomCoordinate;
+        private int reflectionCoordinate = EdgeProjection.NONE;
+        private int reflectionScore;
 
         public int getLeftCoordinate() {
             return leftCoordinate;
@@ -420,6 +389,32 @@ public class SmartImageAligner implements ImageAligner {
         public void setBottomCoordinate(int bottomCoordinate) {
             this.bottomCoordinate = bottomCoordinate;
         }
+
+        /**
+         * @return first row of the reflection of the product, or -1 when none was detected
+         */
+        public int getReflectionCoordinate() {
+            return reflectionCoordinate;
+        }
+
+        public void setReflectionCoordinate(int reflectionCoordinate) {
+            this.reflectionCoordinate = reflectionCoordinate;
+        }
+
+        public int getReflectionScore() {
+            return reflectionScore;
+        }
+
+        public void setReflectionScore(int reflectionScore) {
+            this.reflectionScore = reflectionScore;
+        }
+
+        @Override
+        public String toString() {
+            return "ImageEdges{" + "left=" + leftCoordinate + ", top=" + topCoordinate
+                    + ", right=" + rightCoordinate + ", bottom=" + bottomCoordinate
+                    + ", reflection=" + reflectionCoordinate + '}';
+        }
     }
 
     protected static class Margin {
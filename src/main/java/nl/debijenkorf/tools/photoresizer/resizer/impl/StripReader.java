@@ -0,0 +1,135 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+
+/**
+ * Reads a region of a source image with subsampling, one strip of rows at a time, so the region is never decoded as a
+ * whole. Only the current strip is kept, which is replaced when a row below it is read. The first strip ends on a tile
+ * or strip boundary of the source and every next strip covers whole tiles, so readers with random access to their
+ * tiles, like the TIFF reader, decode every tile once. A subsampling offset keeps the rows of every strip on the grid
+ * of the region. Every strip is normalized like a decoded image, see {@link ColorNormalizer}.
+ *
+ * @author Maarten Blokker
+ */
+final class StripReader implements RowSource {
+
+    /**
+     * Decoded rows per strip, rounded up to whole tiles of the source.
+     */
+    private static final int STRIP_HEIGHT = 64;
+
+    private final ImageReader reader;
+    private final Rectangle region;
+    private final int subsampling;
+    // source row of the first tile boundary at or above the region, strips start on it every sourceRows rows
+    private final int firstBoundary;
+    private final int sourceRows;
+    private final int width;
+    private final int height;
+
+    private BufferedImage strip;
+    private RowSource stripSource;
+    private int stripY;
+
+    /**
+     * Decodes the first strip.
+     *
+     * @param reader reader with the source as input
+     * @param region region of the source, in full resolution
+     * @param subsampling subsampling of both dimensions
+     * @throws IOException when the first strip can not be decoded
+     */
+    StripReader(ImageReader reader, Rectangle region, int subsampling) throws IOException {
+        this.reader = reader;
+        this.region = region;
+        this.subsampling = subsampling;
+        this.width = (region.width + subsampling - 1) / subsampling;
+        this.height = (region.height + subsampling - 1) / subsampling;
+
+        int rows = STRIP_HEIGHT * subsampling;
+        int tileHeight = reader.getTileHeight(0);
+        if (tileHeight < reader.getHeight(0)) {
+            this.firstBoundary = region.y / tileHeight * tileHeight;
+            this.sourceRows = (rows + tileHeight - 1) / tileHeight * tileHeight;
+        } else {
+            this.firstBoundary = region.y;
+            this.sourceRows = rows;
+        }
+
+        decodeStrip(0);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public boolean hasAlpha() {
+        return stripSource.hasAlpha();
+    }
+
+    @Override
+    public boolean isGray() {
+        return stripSource.isGray();
+    }
+
+    @Override
+    public boolean isRandomAccess() {
+        return false;
+    }
+
+    @Override
+    public void readRow(int x, int y, int length, int[] argb) {
+        if (y < stripY) {
+            throw new IllegalStateException("Rows must be read top to bottom, row " + y + " is above the strip");
+        }
+        if (y >= stripY + strip.getHeight()) {
+            try {
+                decodeStrip(y);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        stripSource.readRow(x, y - stripY, length, argb);
+    }
+
+    /**
+     * Decodes the strip that holds a row.
+     *
+     * @param y the row, in the subsampled region
+     */
+    private void decodeStrip(int y) throws IOException {
+        // release the previous strip before the next one is decoded
+        strip = null;
+        stripSource = null;
+
+        int boundary = firstBoundary + (region.y + y * subsampling - firstBoundary) / sourceRows * sourceRows;
+        int top = Math.max(region.y, boundary);
+        int bottom = Math.min(region.y + region.height, boundary + sourceRows);
+        // the first row of the strip on the grid of the region
+        int first = (top - region.y + subsampling - 1) / subsampling;
+        int offset = region.y + first * subsampling - top;
+
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(region.x, top, region.width, bottom - top));
+        if (subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, offset);
+        }
+
+        strip = ColorNormalizer.normalize(reader.read(0, param));
+        stripSource = RowSource.of(strip);
+        stripY = first;
+    }
+}
@@ -0,0 +1,100 @@
+package nl.debijenkorf.tools.photoresizer.resizer.impl;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link DistanceKernel} on top of the incubating Java Vector API, processing as many pixels at once as the preferred
+ * vector size of the CPU allows (8 with AVX2, 16 with AVX-512). The remainder of a row is done one pixel at a time.
+ *
+ * Built by the {@code vector} profile, and loaded through {@link DistanceKernel#vector()} so the rest of the
+ * application does not depend on the incubator module.
+ *
+ * @author Maarten Blokker
+ */
+public final class VectorDistanceKernel implements DistanceKernel {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final IntVector WHITE = IntVector.broadcast(SPECIES, 255);
+
+    public VectorDistanceKernel() {
+    }
+
+    @Override
+    public void distances(int[] rgb, int[] distances, int length) {
+        int bound = SPECIES.loopBound(length);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            IntVector pixel = IntVector.fromArray(SPECIES, rgb, i);
+            IntVector red = WHITE.sub(pixel.lanewise(VectorOperators.LSHR, 16).and(0xFF));
+            IntVector green = WHITE.sub(pixel.lanewise(VectorOperators.LSHR, 8).and(0xFF));
+            IntVector blue = WHITE.sub(pixel.and(0xFF));
+            red.mul(red).add(green.mul(green)).add(blue.mul(blue)).intoArray(distances, i);
+        }
+        for (int i = bound; i < length; i++) {
+            int pixel = rgb[i];
+            int red = 255 - ((pixel >> 16) & 0xFF);
+            int green = 255 - ((pixel >> 8) & 0xFF);
+            int blue = 255 - (pixel & 0xFF);
+            distances[i] = red * red + green * green + blue * blue;
+        }
+    }
+
+    @Override
+    public int firstAbove(int[] distances, int length, int threshold) {
+        int bound = SPECIES.loopBound(length);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            int lane = IntVector.fromArray(SPECIES, distances, i).compare(VectorOperators.GT, threshold).firstTrue();
+            if (lane < SPECIES.length()) {
+                return i + lane;
+            }
+        }
+        for (int i = bound; i < length; i++) {
+            if (distances[i] > threshold) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastAbove(int[] distances, int length, int threshold) {
+        int bound = SPECIES.loopBound(length);
+        for (int i = length - 1; i >= bound; i--) {
+            if (distances[i] > threshold) {
+                return i;
+            }
+        }
+        for (int i = bound - SPECIES.length(); i >= 0; i -= SPECIES.length()) {
+            int lane = IntVector.fromArray(SPECIES, distances, i).compare(VectorOperators.GT, threshold).lastTrue();
+            if (lane >= 0) {
+                return i + lane;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean isCut(int[] above2, int[] above, int[] current, int[] below, int from, int to, int tolerance) {
+        int margin = Math.max(0, tolerance * 6);
+        int bound = from + SPECIES.loopBound(to - from);
+        for (int x = from; x < bound; x += SPECIES.length()) {
+            IntVector top = IntVector.fromArray(SPECIES, above, x)
+                    .add(IntVector.fromArray(SPECIES, above2, x))
+                    .lanewise(VectorOperators.ASHR, 1)
+                    .lanewise(VectorOperators.LSHL, 1);
+            IntVector bottom = IntVector.fromArray(SPECIES, current, x)
+                    .add(IntVector.fromArray(SPECIES, below, x))
+                    .add(margin);
+            if (bottom.compare(VectorOperators.LT, top).anyTrue()) {
+                return true;
+            }
+        }
+        for (int x = bound; x < to; x++) {
+            if (current[x] + below[x] + margin < ((above[x] + above2[x]) >> 1) << 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+}